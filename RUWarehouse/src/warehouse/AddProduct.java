@@ -1,29 +1,33 @@
 package warehouse;
 
+import java.io.IOException;
+
 /*
  * Use this class to test to addProduct method.
  */
 public class AddProduct {
-    public static void main(String[] args) {
-        StdIn.setFile(args[0]);
-        StdOut.setFile(args[1]);
+    public static void main(String[] args) throws IOException {
+        FastStdIn.setFile(args[0]);
+        FastStdOut.setFile(args[1]);
 
         Warehouse warehouse = new Warehouse(); 
 
-        int num_items = StdIn.readInt();  
+        int num_items = FastStdIn.readInt();  
 
         while (num_items != 0){
-            int day = StdIn.readInt(); 
-            int id = StdIn.readInt(); 
-            String name = StdIn.readString(); 
-            int stock = StdIn.readInt(); 
-            int demand = StdIn.readInt();  
+            int day = FastStdIn.readInt(); 
+            int id = FastStdIn.readInt(); 
+            String name = FastStdIn.readString(); 
+            int stock = FastStdIn.readInt(); 
+            int demand = FastStdIn.readInt();  
             
             warehouse.addProduct(id, name, stock, day, demand);
             num_items--; 
         }
 
-        StdOut.println(warehouse); 
+        warehouse.appendTo(FastStdOut.appendable());
+        FastStdOut.println();
+        FastStdOut.close();
 
 
 	// Use this file to test addProduct
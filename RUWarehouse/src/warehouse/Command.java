@@ -0,0 +1,153 @@
+package warehouse;
+
+/*
+ * One parsed line of a command file such as everything.in:
+ *   add <day> <id> <name> <stock> <demand>
+ *   betteradd <day> <id> <name> <stock> <demand>
+ *   restock <id> <amount>
+ *   delete <id>
+ *   purchase <day> <id> <amount>
+ */
+public class Command {
+    public static final int ADD = 0;
+    public static final int RESTOCK = 1;
+    public static final int DELETE = 2;
+    public static final int PURCHASE = 3;
+    public static final int BETTER_ADD = 4;
+
+    private int type;
+    private int id;
+    private int day;
+    private String name;
+    private int stock;
+    private int demand;
+    private int amount;
+
+    private Command(int type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    public static Command add(int day, int id, String name, int stock, int demand) {
+        Command c = new Command(ADD, id);
+        c.day = day;
+        c.name = name;
+        c.stock = stock;
+        c.demand = demand;
+        return c;
+    }
+
+    public static Command betterAdd(int day, int id, String name, int stock, int demand) {
+        Command c = add(day, id, name, stock, demand);
+        c.type = BETTER_ADD;
+        return c;
+    }
+
+    public static Command restock(int id, int amount) {
+        Command c = new Command(RESTOCK, id);
+        c.amount = amount;
+        return c;
+    }
+
+    public static Command delete(int id) {
+        return new Command(DELETE, id);
+    }
+
+    public static Command purchase(int day, int id, int amount) {
+        Command c = new Command(PURCHASE, id);
+        c.day = day;
+        c.amount = amount;
+        return c;
+    }
+
+    /**
+     * Read the next command from FastStdIn
+     * @return The command
+     * @throws IllegalArgumentException if the command type is unknown
+     */
+    public static Command read() {
+        String type = FastStdIn.readString();
+
+        if (type.equals("add") || type.equals("betteradd")) {
+            int day = FastStdIn.readInt();
+            int id = FastStdIn.readInt();
+            String name = FastStdIn.readString();
+            int stock = FastStdIn.readInt();
+            int demand = FastStdIn.readInt();
+
+            return type.equals("add") ? add(day, id, name, stock, demand) : betterAdd(day, id, name, stock, demand);
+        }
+        if (type.equals("restock")) {
+            int id = FastStdIn.readInt();
+            int amount = FastStdIn.readInt();
+            return restock(id, amount);
+        }
+        if (type.equals("delete")) {
+            return delete(FastStdIn.readInt());
+        }
+        if (type.equals("purchase")) {
+            int day = FastStdIn.readInt();
+            int id = FastStdIn.readInt();
+            int amount = FastStdIn.readInt();
+            return purchase(day, id, amount);
+        }
+
+        throw new IllegalArgumentException("unknown command: " + type);
+    }
+
+    /**
+     * Read a command count followed by that many commands from FastStdIn
+     * @return The commands in file order
+     */
+    public static Command[] readAll() {
+        Command[] commands = new Command[FastStdIn.readInt()];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = read();
+        }
+        return commands;
+    }
+
+    // Run this command on some warehouse
+    public void apply(Warehouse warehouse) {
+        switch (type) {
+            case ADD:
+                warehouse.addProduct(id, name, stock, day, demand);
+                break;
+            case BETTER_ADD:
+                warehouse.betterAddProduct(id, name, stock, day, demand);
+                break;
+            case RESTOCK:
+                warehouse.restockProduct(id, amount);
+                break;
+            case DELETE:
+                warehouse.deleteProduct(id);
+                break;
+            case PURCHASE:
+                warehouse.purchaseProduct(id, day, amount);
+                break;
+        }
+    }
+
+    public int getType() { return type; }
+    public int getId() { return id; }
+    public int getDay() { return day; }
+    public String getName() { return name; }
+    public int getStock() { return stock; }
+    public int getDemand() { return demand; }
+    public int getAmount() { return amount; }
+
+    public String toString() {
+        switch (type) {
+            case ADD:
+                return "add " + day + " " + id + " " + name + " " + stock + " " + demand;
+            case BETTER_ADD:
+                return "betteradd " + day + " " + id + " " + name + " " + stock + " " + demand;
+            case RESTOCK:
+                return "restock " + id + " " + amount;
+            case DELETE:
+                return "delete " + id;
+            default:
+                return "purchase " + day + " " + id + " " + amount;
+        }
+    }
+}
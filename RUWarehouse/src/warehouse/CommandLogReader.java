@@ -0,0 +1,194 @@
+package warehouse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Reads a binary command log written by CommandLogWriter, see there for the format.
+ * A command cut off by the end of the file (a crash while appending) counts as the end of the log.
+ */
+public class CommandLogReader {
+    private InputStream in;
+    private byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private String[] names = new String[CommandLogWriter.NAME_SLOTS]; // the writer's name slots
+    private int nextSlot;
+
+    /**
+     * Opens a log on some stream
+     * @param in The stream to read from, the reader buffers on its own
+     * @throws IOException If the stream does not start with a command log header
+     */
+    public CommandLogReader(InputStream in) throws IOException {
+        this.in = in;
+        for (byte b : CommandLogWriter.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("not a command log");
+            }
+        }
+        int version = readByte();
+        if (version != CommandLogWriter.VERSION) {
+            throw new IOException("unsupported command log version " + version);
+        }
+    }
+
+    /**
+     * Read the next command
+     * @return The command, or null at the end of the log
+     * @throws IOException If the stream throws or the log is corrupt
+     */
+    public Command next() throws IOException {
+        int type = readOpcode();
+        try {
+            switch (type) {
+                case -1:
+                    return null;
+                case Command.ADD:
+                case Command.BETTER_ADD: {
+                    int day = readInt();
+                    int id = readInt();
+                    String name = readName();
+                    int stock = readInt();
+                    int demand = readInt();
+                    return type == Command.ADD ? Command.add(day, id, name, stock, demand)
+                                               : Command.betterAdd(day, id, name, stock, demand);
+                }
+                case Command.RESTOCK: {
+                    int id = readInt();
+                    return Command.restock(id, readInt());
+                }
+                case Command.DELETE:
+                    return Command.delete(readInt());
+                case Command.PURCHASE: {
+                    int day = readInt();
+                    int id = readInt();
+                    return Command.purchase(day, id, readInt());
+                }
+                default:
+                    throw new IOException("unknown opcode " + type);
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply every remaining command to a warehouse, without creating Command objects
+     * @param warehouse The warehouse to update
+     * @return The number of commands applied
+     * @throws IOException If the stream throws or the log is corrupt
+     */
+    public long replay(Warehouse warehouse) throws IOException {
+        long count = 0;
+        try {
+            for (int type = readOpcode(); type != -1; type = readOpcode()) {
+                switch (type) {
+                    case Command.ADD:
+                    case Command.BETTER_ADD: {
+                        int day = readInt();
+                        int id = readInt();
+                        String name = readName();
+                        int stock = readInt();
+                        int demand = readInt();
+                        if (type == Command.ADD) {
+                            warehouse.addProduct(id, name, stock, day, demand);
+                        } else {
+                            warehouse.betterAddProduct(id, name, stock, day, demand);
+                        }
+                        break;
+                    }
+                    case Command.RESTOCK: {
+                        int id = readInt();
+                        warehouse.restockProduct(id, readInt());
+                        break;
+                    }
+                    case Command.DELETE:
+                        warehouse.deleteProduct(readInt());
+                        break;
+                    case Command.PURCHASE: {
+                        int day = readInt();
+                        int id = readInt();
+                        warehouse.purchaseProduct(id, day, readInt());
+                        break;
+                    }
+                    default:
+                        throw new IOException("unknown opcode " + type);
+                }
+                count++;
+            }
+        } catch (EOFException e) {
+            // the last command was cut off
+        }
+        return count;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String readName() throws IOException {
+        int index = readVarint();
+        if (index != 0) {
+            if (index < 0 || index > names.length || names[index - 1] == null) {
+                throw new IOException("name slot " + (index - 1) + " is not defined");
+            }
+            return names[index - 1];
+        }
+
+        int length = readVarint();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) readByte();
+        }
+
+        String name = new String(bytes, StandardCharsets.UTF_8);
+        names[nextSlot] = name;
+        nextSlot = (nextSlot + 1) % names.length;
+        return name;
+    }
+
+    private int readInt() throws IOException {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint is too long");
+    }
+
+    // The opcode may hit a clean end of the log, every other byte must be there
+    private int readOpcode() throws IOException {
+        if (position == limit && !refill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !refill()) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean refill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package warehouse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/*
+ * Writes commands in the compact binary command log format, read back by CommandLogReader.
+ *
+ * The file starts with the 4 magic bytes "RUWC" and a version byte. Every command after that is
+ * one opcode byte (the Command type) followed by its fields in text file order, each as a varint:
+ *   add / betteradd: day, id, name, stock, demand
+ *   restock:         id, amount
+ *   delete:          id
+ *   purchase:        day, id, amount
+ * Numbers are zigzag encoded so small negative values stay short, 7 bits per byte, low bits first.
+ * Names go through a dictionary of NAME_SLOTS recent names that both sides keep in step, so a log of
+ * billions of mostly unique names needs no more memory than one of a few. A name is a varint:
+ *   0      a new name, followed by its UTF-8 length and bytes, that replaces the oldest slot
+ *   i + 1  the name in slot i
+ * Slots are filled in order and reused round robin once every slot is taken.
+ * There is no command count, the log ends at the end of the file.
+ */
+public class CommandLogWriter {
+    static final byte[] MAGIC = { 'R', 'U', 'W', 'C' };
+    static final int VERSION = 1;
+    static final int NAME_SLOTS = 1 << 12; // a slot index fits in two varint bytes
+
+    private OutputStream out;
+    private byte[] buffer = new byte[1 << 16];
+    private int size;
+    private HashMap<String, Integer> slots = new HashMap<>(); // name -> slot, only for names still in a slot
+    private String[] names = new String[NAME_SLOTS];
+    private int nextSlot; // the slot the next new name replaces
+
+    /**
+     * Starts a new log on some stream
+     * @param out The stream to write to, the writer buffers on its own
+     * @throws IOException If out throws
+     */
+    public CommandLogWriter(OutputStream out) throws IOException {
+        this.out = out;
+        for (byte b : MAGIC) {
+            writeByte(b);
+        }
+        writeByte(VERSION);
+    }
+
+    // Append one command to the log
+    public void write(Command command) throws IOException {
+        writeByte(command.getType());
+
+        switch (command.getType()) {
+            case Command.ADD:
+            case Command.BETTER_ADD:
+                writeInt(command.getDay());
+                writeInt(command.getId());
+                writeName(command.getName());
+                writeInt(command.getStock());
+                writeInt(command.getDemand());
+                break;
+            case Command.RESTOCK:
+                writeInt(command.getId());
+                writeInt(command.getAmount());
+                break;
+            case Command.DELETE:
+                writeInt(command.getId());
+                break;
+            case Command.PURCHASE:
+                writeInt(command.getDay());
+                writeInt(command.getId());
+                writeInt(command.getAmount());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown command type: " + command.getType());
+        }
+    }
+
+    // Write out everything buffered so far
+    public void flush() throws IOException {
+        out.write(buffer, 0, size);
+        out.flush();
+        size = 0;
+    }
+
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void writeName(String name) throws IOException {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            writeVarint(slot + 1);
+            return;
+        }
+
+        if (names[nextSlot] != null) {
+            slots.remove(names[nextSlot]);
+        }
+        names[nextSlot] = name;
+        slots.put(name, nextSlot);
+        nextSlot = (nextSlot + 1) % NAME_SLOTS;
+
+        writeVarint(0);
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (size == buffer.length) {
+            out.write(buffer, 0, size);
+            size = 0;
+        }
+        buffer[size++] = (byte) b;
+    }
+}
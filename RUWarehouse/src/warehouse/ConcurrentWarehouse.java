@@ -0,0 +1,466 @@
+package warehouse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * A thread safe Warehouse with one lock per sector.
+ * Every operation only touches the sector that holds its id, so operations on different sectors run in parallel.
+ * That is the home sector unless betterAddProduct put the product elsewhere. An operation looks the sector up
+ * in the id directory, locks it and looks again, and starts over if the product moved in between.
+ * A product only leaves a sector while that sector is locked, and only enters the warehouse while its
+ * home sector is locked, so once the second look agrees the answer stays true until the lock is released.
+ *
+ * addProduct also locks the sector of the product it replaces, both in increasing order.
+ * With global eviction an add into a full home sector may land in, or evict from, any sector,
+ * so it starts over holding every lock.
+ * betterAddProduct may probe into other sectors. Locks are always taken in increasing sector order,
+ * probing past the last sector only uses tryLock, and if that fails every lock is released
+ * and all sectors are locked in order instead, so two probes can never deadlock.
+ *
+ * getStock, getPopularity and getProduct never take a write lock. They read optimistically and
+ * validate the sector's lock stamp afterwards, only falling back to a read lock if a writer got in the way.
+ * restockProduct finds its product the same way and then changes the stock atomically,
+ * so restocks never wait for swim or sink on the same sector.
+ *
+ * With a write-ahead log each mutation is logged while its sector is locked, so the log holds
+ * the mutations of a sector in the order they were applied, and it waits for the fsync only after
+ * unlocking, so other threads keep working on the sector and share the next group commit.
+ * Restocks take the write lock while logging, since their log order matters too.
+ *
+ * The admission filter is shared by every sector, and its counters change on every add, restock and purchase,
+ * so recovery only makes the same admission decisions if it counts in the same order as the logged run.
+ * With both a log and an admission filter every mutation therefore takes its log ticket and runs under one
+ * extra warehouse wide lock, taken after the sector locks, which gives up parallel writes in that setup.
+ */
+public class ConcurrentWarehouse extends Warehouse {
+    private StampedLock[] locks;
+    private final Object sequence = new Object(); // orders logged mutations when there is an admission filter
+
+    public ConcurrentWarehouse() {
+        this(10, 5);
+    }
+
+    public ConcurrentWarehouse(int sectorCount, int capacity) {
+        this(sectorCount, capacity, 2);
+    }
+
+    // arity is the number of children per heap node, see Warehouse.Builder.heapArity()
+    ConcurrentWarehouse(int sectorCount, int capacity, int arity) {
+        super(sectorCount, capacity, true, arity);
+        locks = new StampedLock[sectorCount];
+
+        for (int i = 0; i < sectorCount; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    @Override
+    public void addProduct(int id, String name, int stock, int day, int demand) {
+        long start = startTimer();
+        int home = sectorOf(id);
+        int holder = holderOf(id);
+        long[] stamps = lockPair(home, holder);
+        while (holderOf(id) != holder) {
+            // the old product moved before its sector was locked
+            unlockPair(home, holder, stamps);
+            holder = holderOf(id);
+            stamps = lockPair(home, holder);
+        }
+
+        Sector[] sectors = getSectors();
+        if (hasGlobalEviction() && sectors[home].getSize() == sectors[home].getCapacity()) {
+            unlockPair(home, holder, stamps);
+            awaitLog(addHoldingAllLocks(id, name, stock, day, demand));
+            stopTimer(Command.ADD, start);
+            return;
+        }
+
+        long ticket;
+        try {
+            ticket = logAndApply(logging() ? Command.add(day, id, name, stock, demand) : null,
+                                 () -> insert(id, name, stock, day, demand));
+        } finally {
+            unlockPair(home, holder, stamps);
+        }
+        awaitLog(ticket);
+        stopTimer(Command.ADD, start);
+    }
+
+    /*
+     * Log a command and apply it, the caller holds the locks the command needs.
+     * With both a log and an admission filter the two happen under the sequence lock, see the class comment.
+     * Returns the log ticket
+     */
+    private long logAndApply(Command command, Runnable apply) {
+        if (!logging() || !hasAdmissionFilter()) {
+            long ticket = log(command);
+            apply.run();
+            return ticket;
+        }
+        synchronized (sequence) {
+            long ticket = log(command);
+            apply.run();
+            return ticket;
+        }
+    }
+
+    // Returns the log ticket, the caller waits for it after every lock is released
+    private long addHoldingAllLocks(int id, String name, int stock, int day, int demand) {
+        long[] stamps = lockAll(false);
+        try {
+            return logAndApply(logging() ? Command.add(day, id, name, stock, demand) : null,
+                               () -> insert(id, name, stock, day, demand));
+        } finally {
+            unlockAll(stamps, false);
+        }
+    }
+
+    @Override
+    public void restockProduct(int id, int amount) {
+        long start = startTimer();
+        if (logging()) {
+            restockLogged(id, amount);
+        } else {
+            restockOptimistic(id, amount);
+        }
+        stopTimer(Command.RESTOCK, start);
+    }
+
+    private void restockLogged(int id, int amount) {
+        int sector = lockHolder(id);
+        long ticket;
+        try {
+            ticket = logAndApply(Command.restock(id, amount),
+                                 () -> restock(id, find(id), amount));
+        } finally {
+            locks[sector].asWriteLock().unlock();
+        }
+        awaitLog(ticket);
+    }
+
+    private void restockOptimistic(int id, int amount) {
+        int sector = holderOf(id);
+        StampedLock lock = locks[sector];
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                Product product = findIn(sector, id);
+                if (lock.validate(stamp) && (product != null || holderOf(id) == sector)) {
+                    restock(id, product, amount);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // The sector was read in the middle of a write, fall through to the locked lookup
+            }
+        }
+
+        // A shared lock is enough, the stock itself is updated atomically
+        stamp = lock.readLock();
+        while (holderOf(id) != sector) {
+            lock.unlockRead(stamp);
+            sector = holderOf(id);
+            lock = locks[sector];
+            stamp = lock.readLock();
+        }
+        try {
+            restock(id, find(id), amount);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void deleteProduct(int id) {
+        long start = startTimer();
+        int sector = lockHolder(id);
+        long ticket;
+        try {
+            ticket = logAndApply(logging() ? Command.delete(id) : null,
+                                 () -> remove(id));
+        } finally {
+            locks[sector].asWriteLock().unlock();
+        }
+        awaitLog(ticket);
+        stopTimer(Command.DELETE, start);
+    }
+
+    @Override
+    public void purchaseProduct(int id, int day, int amount) {
+        long start = startTimer();
+        int sector = lockHolder(id);
+        long ticket;
+        try {
+            ticket = logAndApply(logging() ? Command.purchase(day, id, amount) : null,
+                                 () -> purchase(id, day, amount));
+        } finally {
+            locks[sector].asWriteLock().unlock();
+        }
+        awaitLog(ticket);
+        stopTimer(Command.PURCHASE, start);
+    }
+
+    // Write lock the sector that holds some id, or its home sector if it is not in the warehouse, and return it
+    private int lockHolder(int id) {
+        int sector = holderOf(id);
+        long stamp = locks[sector].writeLock();
+        while (holderOf(id) != sector) {
+            locks[sector].unlockWrite(stamp);
+            sector = holderOf(id);
+            stamp = locks[sector].writeLock();
+        }
+        return sector;
+    }
+
+    // Write lock two sectors in increasing order, or one if they are the same
+    private long[] lockPair(int first, int second) {
+        if (first == second) {
+            return new long[] { locks[first].writeLock() };
+        }
+        int low = Math.min(first, second);
+        int high = Math.max(first, second);
+        long lowStamp = locks[low].writeLock();
+        return new long[] { lowStamp, locks[high].writeLock() };
+    }
+
+    private void unlockPair(int first, int second, long[] stamps) {
+        if (first == second) {
+            locks[first].unlockWrite(stamps[0]);
+            return;
+        }
+        locks[Math.max(first, second)].unlockWrite(stamps[1]);
+        locks[Math.min(first, second)].unlockWrite(stamps[0]);
+    }
+
+    /**
+     * Locks every sector betterAddProduct will look at before running it
+     * Walks from the home sector like the probe does, so in the common case only the home sector is locked
+     * If the product it replaces is in a sector outside that walk, it locks everything instead
+     */
+    @Override
+    public void betterAddProduct(int id, String name, int stock, int day, int demand) {
+        long start = startTimer();
+        betterAddLocked(id, name, stock, day, demand);
+        stopTimer(Command.BETTER_ADD, start);
+    }
+
+    private void betterAddLocked(int id, String name, int stock, int day, int demand) {
+        Sector[] sectors = getSectors();
+        int home = sectorOf(id);
+        long[] stamps = new long[Math.min(sectors.length, 4)]; // stamps[i] is for sector home + i, wrapped
+        int locked = 0;
+        long ticket;
+
+        try {
+            while (locked < sectors.length) {
+                int ind = (home + locked) % sectors.length;
+                if (locked == stamps.length) {
+                    stamps = Arrays.copyOf(stamps, Math.min(sectors.length, locked * 2));
+                }
+
+                if (ind >= home) {
+                    stamps[locked] = locks[ind].writeLock();
+                } else {
+                    stamps[locked] = locks[ind].tryWriteLock();
+                    if (stamps[locked] == 0) {
+                        // Waiting here could deadlock, start over while holding every lock
+                        unlock(stamps, home, locked);
+                        locked = 0;
+                        awaitLog(betterAddHoldingAllLocks(id, name, stock, day, demand));
+                        return;
+                    }
+                }
+                locked++;
+
+                if (sectors[ind].getSize() < sectors[ind].getCapacity()) {
+                    break;
+                }
+            }
+
+            int holder = holderOf(id);
+            if ((holder - home + sectors.length) % sectors.length >= locked) {
+                // the product being replaced is in a sector that is not locked
+                unlock(stamps, home, locked);
+                locked = 0;
+                awaitLog(betterAddHoldingAllLocks(id, name, stock, day, demand));
+                return;
+            }
+
+            ticket = logAndApply(logging() ? Command.betterAdd(day, id, name, stock, demand) : null,
+                                 () -> betterInsert(id, name, stock, day, demand));
+        } finally {
+            unlock(stamps, home, locked);
+        }
+        awaitLog(ticket);
+    }
+
+    // Returns the log ticket, the caller waits for it after every lock is released
+    private long betterAddHoldingAllLocks(int id, String name, int stock, int day, int demand) {
+        long[] stamps = lockAll(false);
+        try {
+            return logAndApply(logging() ? Command.betterAdd(day, id, name, stock, demand) : null,
+                               () -> betterInsert(id, name, stock, day, demand));
+        } finally {
+            unlockAll(stamps, false);
+        }
+    }
+
+    private void unlock(long[] stamps, int home, int locked) {
+        for (int i = locked - 1; i >= 0; i--) {
+            locks[(home + i) % locks.length].unlockWrite(stamps[i]);
+        }
+    }
+
+    // Lock every sector in increasing order, for reading or for writing
+    private long[] lockAll(boolean read) {
+        long[] stamps = new long[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            stamps[i] = read ? locks[i].readLock() : locks[i].writeLock();
+        }
+        return stamps;
+    }
+
+    private void unlockAll(long[] stamps, boolean read) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            if (read) {
+                locks[i].unlockRead(stamps[i]);
+            } else {
+                locks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    @Override
+    public int getStock(int id) {
+        ProductView product = getProduct(id);
+        return product == null ? -1 : product.getStock();
+    }
+
+    @Override
+    public int getPopularity(int id) {
+        ProductView product = getProduct(id);
+        return product == null ? -1 : product.getPopularity();
+    }
+
+    /**
+     * Reads the product without blocking writers
+     * If the sector changed while reading, for example halfway through a swap in sink,
+     * the stamp does not validate and the read is retried under the read lock
+     */
+    @Override
+    public ProductView getProduct(int id) {
+        int sector = holderOf(id);
+        StampedLock lock = locks[sector];
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                Product product = findIn(sector, id);
+                ProductView view = product == null ? null : new ProductView(product);
+                // a null is only an answer if the product did not just move to another sector
+                if (lock.validate(stamp) && (view != null || holderOf(id) == sector)) {
+                    return view;
+                }
+            } catch (RuntimeException e) {
+                // The sector was read in the middle of a write, fall through to the locked read
+            }
+        }
+
+        stamp = lock.readLock();
+        while (holderOf(id) != sector) {
+            lock.unlockRead(stamp);
+            sector = holderOf(id);
+            lock = locks[sector];
+            stamp = lock.readLock();
+        }
+        try {
+            return super.getProduct(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Reads every sector while it is read locked, so the report comes from one consistent state
+    @Override
+    public List<ProductView> bottomK(int k) {
+        long[] stamps = lockAll(true);
+        try {
+            return super.bottomK(k);
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+
+    @Override
+    public List<ProductView> topK(int k) {
+        long[] stamps = lockAll(true);
+        try {
+            return super.topK(k);
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+
+    /*
+     * Streams the warehouse while every sector is read locked, so it shows one consistent state
+     * toString and writeTo go through here as well
+     */
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        long[] stamps = lockAll(true);
+        try {
+            super.appendTo(out);
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+
+    /*
+     * Writes the snapshot while every sector is read locked, so it holds one consistent state
+     */
+    @Override
+    public void snapshot(Path path) throws IOException {
+        long[] stamps = lockAll(true);
+        try {
+            writeSnapshot(path);
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+
+    /*
+     * Checkpoints while every sector is read locked, so no mutation lands between
+     * the start of the new log generation and the snapshot
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        long[] stamps = lockAll(true);
+        try {
+            super.checkpoint();
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+
+    /*
+     * Returns deep copies of every sector, all taken at the same moment
+     * getSectors() still returns the live sectors, which are only safe to read while no other thread writes
+     */
+    public Sector[] snapshotSectors() {
+        long[] stamps = lockAll(true);
+        try {
+            Sector[] sectors = getSectors();
+            Sector[] snapshot = new Sector[sectors.length];
+            for (int i = 0; i < sectors.length; i++) {
+                snapshot[i] = new Sector(sectors[i]);
+            }
+            return snapshot;
+        } finally {
+            unlockAll(stamps, true);
+        }
+    }
+}
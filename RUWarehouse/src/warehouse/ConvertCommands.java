@@ -0,0 +1,24 @@
+package warehouse;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ * Use this class to convert a text command file (like everything.in) into a binary command log.
+ * java warehouse.ConvertCommands everything.in everything.log
+ */
+public class ConvertCommands {
+    public static void main(String[] args) throws IOException {
+        FastStdIn.setFile(args[0]);
+        CommandLogWriter log = new CommandLogWriter(new FileOutputStream(args[1]));
+
+        long num_items = FastStdIn.readLong();
+
+        while (num_items != 0){
+            log.write(Command.read());
+            num_items--;
+        }
+
+        log.close();
+    }
+}
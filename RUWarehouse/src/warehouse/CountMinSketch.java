@@ -0,0 +1,117 @@
+package warehouse;
+
+/*
+ * Estimates how often each id was seen recently, in a fixed amount of memory.
+ *
+ * Counters are 4 bits, 16 to a long. Every id has one counter in each of 4 rows, picked by
+ * 4 different hashes, and its estimate is the smallest of the 4, so collisions only ever make an
+ * estimate too high. Once there have been 10 increments per expected id, every counter is halved,
+ * so old popularity fades and the counters never saturate for long.
+ *
+ * The methods are synchronized, since the sectors of a ConcurrentWarehouse share one sketch.
+ */
+public class CountMinSketch {
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                                          0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L; // clears the bit shifted in from the next counter
+    static final int MAX_COUNT = 15;
+
+    private long[] table;
+    private int sampleSize; // increments between two resets
+    private int additions;  // increments since the last reset
+
+    /**
+     * @param expectedIds Roughly how many distinct ids matter at once, e.g. the capacity of the warehouse
+     */
+    public CountMinSketch(int expectedIds) {
+        if (expectedIds < 1) {
+            throw new IllegalArgumentException("expected ids must be positive: " + expectedIds);
+        }
+        int length = Integer.highestOneBit(Math.min(Math.max(expectedIds, 16), 1 << 26) * 2 - 1); // next power of two, at most 512 MB
+        table = new long[length];
+        sampleSize = (int) Math.min(10L * expectedIds, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Count one more sighting of an id
+     * @param id The id
+     */
+    public synchronized void increment(int id) {
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long hash = hash(id, row);
+            int index = (int) hash & (table.length - 1);
+            int shift = offset(hash);
+
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimate how often an id was seen recently
+     * @param id The id
+     * @return From 0 to 15, never less than the true count since the last reset
+     */
+    public synchronized int frequency(int id) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long hash = hash(id, row);
+            int index = (int) hash & (table.length - 1);
+            frequency = Math.min(frequency, (int) (table[index] >>> offset(hash)) & MAX_COUNT);
+        }
+        return frequency;
+    }
+
+    /**
+     * TinyLFU admission, a newcomer only replaces a victim that was seen less often
+     * @param candidate The id that wants to come in
+     * @param victim The id that would have to leave
+     * @return True if the candidate should replace the victim
+     */
+    public boolean admits(int candidate, int victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    // Halve every counter
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static long hash(int id, int row) {
+        long hash = (id + SEEDS[row]) * SEEDS[row];
+        return hash + (hash >>> 32);
+    }
+
+    // Bit offset of the counter within its long
+    private static int offset(long hash) {
+        return ((int) (hash >>> 40) & 15) << 2;
+    }
+
+    // For snapshots, the counters and additions are all of the state
+    synchronized long[] getTable() {
+        return table.clone();
+    }
+
+    synchronized int getAdditions() {
+        return additions;
+    }
+
+    synchronized void setState(long[] counters, int additions) {
+        System.arraycopy(counters, 0, table, 0, table.length);
+        this.additions = additions;
+    }
+
+    int getTableLength() {
+        return table.length;
+    }
+}
@@ -1,57 +1,37 @@
 package warehouse;
 
+import java.io.IOException;
+
 /*
  * Use this class to put it all together.
+ * An optional third argument replays the commands on that many threads, see ParallelReplay.
  */ 
 public class Everything {
-    public static void main(String[] args) {
-        StdIn.setFile(args[0]);
-        StdOut.setFile(args[1]);
+    public static void main(String[] args) throws IOException {
+        FastStdIn.setFile(args[0]);
+        FastStdOut.setFile(args[1]);
 
         Warehouse warehouse = new Warehouse(); 
 
-        int num_items = StdIn.readInt();  
+        if (args.length > 2){
+            new ParallelReplay(warehouse, Integer.parseInt(args[2])).replay(Command.readAll());
+            warehouse.appendTo(FastStdOut.appendable());
+            FastStdOut.println();
+            FastStdOut.close();
+            return;
+        }
+
+        long num_items = FastStdIn.readLong();  
 
+        // Command.read() knows every command type the workload generator writes, betteradd included
         while (num_items != 0){
-            String type = StdIn.readString(); 
-            if (type.equals("add")){
-                int day = StdIn.readInt(); 
-                int id = StdIn.readInt(); 
-                String name = StdIn.readString(); 
-                int stock = StdIn.readInt(); 
-                int demand = StdIn.readInt(); 
-
-                warehouse.addProduct(id, name, stock, day, demand);
-                num_items--; 
-            } 
-
-            if (type.equals("restock")){
-                int id = StdIn.readInt(); 
-                int amount = StdIn.readInt(); 
-
-                warehouse.restockProduct(id, amount); 
-                num_items--; 
-            }
-
-            if (type.equals("delete")){
-                int id = StdIn.readInt(); 
-
-                warehouse.deleteProduct(id); 
-                num_items--; 
-            }
-
-            if (type.equals("purchase")){
-                int day = StdIn.readInt(); 
-                int id = StdIn.readInt(); 
-                int amount = StdIn.readInt(); 
-
-                warehouse.purchaseProduct(id, day, amount);
-                num_items--; 
-            }
-
+            Command.read().apply(warehouse);
+            num_items--; 
         }
 
-        StdOut.println(warehouse); 
+        warehouse.appendTo(FastStdOut.appendable());
+        FastStdOut.println();
+        FastStdOut.close();
 
 	// Use this file to test all methods
     }
@@ -0,0 +1,263 @@
+package warehouse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ *  The {@code FastStdIn} class reads whitespace separated tokens like {@link StdIn},
+ *  with the same method names, but without {@link java.util.Scanner} and regular expressions.
+ *  <p>
+ *  Input is read in large blocks and tokens are split on ASCII whitespace
+ *  (space, tab, newline, carriage return, form feed and vertical tab).
+ *  {@link #readInt()} and {@link #readLong()} parse digits straight from the input bytes,
+ *  so numeric tokens never become a {@code String}. Strings are decoded as UTF-8.
+ *  <p>
+ *  Files given to {@link #setFile(String)} are memory-mapped instead of read,
+ *  so the tokenizer works on the operating system's page cache directly.
+ *  Large files are mapped in windows of {@value #WINDOW_SIZE} bytes, a token may span two windows.
+ *  <p>
+ *  Only the token based methods of {@code StdIn} are supported, which is all the warehouse drivers use.
+ */
+public final class FastStdIn {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    static final int WINDOW_SIZE = 1 << 28;
+
+    // the bytes read so far, get() returns the next unread byte
+    private static ByteBuffer buffer;
+    private static InputStream in;        // set when reading from a stream
+    private static FileChannel channel;   // set when reading from a mapped file
+    private static long windowEnd;        // file offset just past the current window
+    private static byte[] token = new byte[64];
+
+    static {
+        setInput(System.in);
+    }
+
+    // it doesn't make sense to instantiate this class
+    private FastStdIn() { }
+
+    /**
+     * Reads from a memory-mapped file instead of standard input.
+     *
+     * @param filename the name of the file
+     */
+    public static void setFile(String filename) {
+        try {
+            FileChannel file = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            close();
+            channel = file;
+            windowEnd = 0;
+            buffer = ByteBuffer.allocate(0);
+        }
+        catch (IOException ioe) {
+            System.err.println("Could not open " + filename);
+        }
+    }
+
+    /**
+     * Reads from some input stream instead of standard input.
+     *
+     * @param stream the stream to read from
+     */
+    public static void setInput(InputStream stream) {
+        close();
+        in = stream;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.limit(0);
+    }
+
+    // Release the mapped file, if any
+    private static void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                // nothing left to read from it anyway
+            }
+            channel = null;
+        }
+        in = null;
+    }
+
+    /**
+     * Returns true if there are no more tokens.
+     *
+     * @return {@code true} if only whitespace is left
+     */
+    public static boolean isEmpty() {
+        return skipWhitespace() == -1;
+    }
+
+    /**
+     * Reads the next token and returns the {@code String}.
+     *
+     * @return the next {@code String}
+     * @throws NoSuchElementException if there are no more tokens
+     */
+    public static String readString() {
+        int b = skipWhitespace();
+        if (b == -1) {
+            throw new NoSuchElementException("attempts to read a 'String' value from standard input, "
+                                           + "but no more tokens are available");
+        }
+
+        b = next();
+        int length = 0;
+        do {
+            if (length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = (byte) b;
+            b = next();
+        } while (b != -1 && !isWhitespace(b));
+
+        return new String(token, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next token and parses it as an integer.
+     *
+     * @return the next integer
+     * @throws NoSuchElementException if there are no more tokens
+     * @throws InputMismatchException if the next token is not an {@code int}
+     */
+    public static int readInt() {
+        long value = readLong();
+        if (value != (int) value) {
+            throw new InputMismatchException("attempts to read an 'int' value from standard input, "
+                                           + "but " + value + " is out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the next token and parses it as a long.
+     *
+     * @return the next long
+     * @throws NoSuchElementException if there are no more tokens
+     * @throws InputMismatchException if the next token is not a {@code long}
+     */
+    public static long readLong() {
+        int b = skipWhitespace();
+        if (b == -1) {
+            throw new NoSuchElementException("attempts to read a number from standard input, "
+                                           + "but no more tokens are available");
+        }
+
+        b = next();
+        boolean negative = b == '-';
+        if (negative || b == '+') {
+            b = next();
+        }
+
+        // accumulate as a negative number so Long.MIN_VALUE fits
+        long value = 0;
+        int digits = 0;
+        while (b != -1 && !isWhitespace(b)) {
+            if (b < '0' || b > '9') {
+                throw new InputMismatchException("attempts to read a number from standard input, "
+                                               + "but found the character '" + (char) b + "'");
+            }
+            if (value < -922337203685477580L || (value == -922337203685477580L && b > (negative ? '8' : '7'))) {
+                throw new InputMismatchException("attempts to read a number from standard input, "
+                                               + "but it is out of range");
+            }
+            value = value * 10 - (b - '0');
+            digits++;
+            b = next();
+        }
+
+        if (digits == 0) {
+            throw new InputMismatchException("attempts to read a number from standard input, "
+                                           + "but the token has no digits");
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Reads the next token and parses it as a double.
+     *
+     * @return the next double
+     * @throws NoSuchElementException if there are no more tokens
+     * @throws InputMismatchException if the next token is not a {@code double}
+     */
+    public static double readDouble() {
+        String s = readString();
+        try {
+            return Double.parseDouble(s);
+        }
+        catch (NumberFormatException e) {
+            throw new InputMismatchException("attempts to read a 'double' value from standard input, "
+                                           + "but the next token is \"" + s + "\"");
+        }
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+
+    // Skip whitespace and return the first byte of the next token without consuming it, or -1 at the end of the input
+    private static int skipWhitespace() {
+        int b = peek();
+        while (b != -1 && isWhitespace(b)) {
+            buffer.get();
+            b = peek();
+        }
+        return b;
+    }
+
+    // Return the next byte without consuming it, or -1 at the end of the input
+    private static int peek() {
+        if (!buffer.hasRemaining() && !refill()) {
+            return -1;
+        }
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    // Return the next byte, or -1 at the end of the input
+    private static int next() {
+        if (!buffer.hasRemaining() && !refill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private static boolean refill() {
+        try {
+            if (channel != null) {
+                // map the next window, the old one is unmapped once it is garbage collected
+                long size = channel.size();
+                if (windowEnd >= size) {
+                    return false;
+                }
+                long start = windowEnd;
+                windowEnd = Math.min(size, start + WINDOW_SIZE);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, windowEnd - start);
+                return true;
+            }
+
+            int n = in.read(buffer.array(), 0, buffer.capacity());
+            if (n <= 0) {
+                buffer.limit(0);
+                return false;
+            }
+            buffer.position(0);
+            buffer.limit(n);
+            return true;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package warehouse;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  The {@code FastStdOut} class prints like {@link StdOut}, with the same method names,
+ *  but collects the output in a large buffer instead of flushing after every call.
+ *  <p>
+ *  The buffer is written out when it fills up, on {@link #flush()} and on {@link #close()},
+ *  so a program has to call one of those before it exits.
+ *  Strings are encoded as UTF-8, with a fast path that copies ASCII characters straight into the buffer,
+ *  and integers are written as digits without creating a {@code String}.
+ */
+public final class FastStdOut {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    // send output here once the buffer is full
+    private static OutputStream out = System.out;
+    private static byte[] buffer = new byte[BUFFER_SIZE];
+    private static int size;
+
+    // prints whatever is appended to it, so a Printable can stream straight into the buffer
+    private static final Appendable APPENDABLE = new Appendable() {
+        public Appendable append(CharSequence x) {
+            print(x);
+            return this;
+        }
+
+        public Appendable append(CharSequence x, int start, int end) {
+            print(x.subSequence(start, end));
+            return this;
+        }
+
+        public Appendable append(char x) {
+            print(x);
+            return this;
+        }
+    };
+
+    // don't instantiate
+    private FastStdOut() { }
+
+   /**
+     * Returns an {@link Appendable} that prints everything appended to it,
+     * for example {@code warehouse.appendTo(FastStdOut.appendable())}.
+     *
+     * @return the appendable
+     */
+    public static Appendable appendable() {
+        return APPENDABLE;
+    }
+
+    public static void setFile(String filename) {
+        try {
+            OutputStream file = new FileOutputStream(filename);
+            flush();
+            out = file;
+        }
+        catch (IOException ioe) {
+            System.err.println("Could not open " + filename);
+        }
+    }
+
+    /**
+     * Writes out everything printed so far.
+     */
+    public static void flush() {
+        try {
+            out.write(buffer, 0, size);
+            out.flush();
+            size = 0;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out everything printed so far and closes the output.
+     */
+    public static void close() {
+        flush();
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+   /**
+     * Terminates the current line by printing the line-separator string.
+     */
+    public static void println() {
+        for (byte b : LINE_SEPARATOR) {
+            write(b);
+        }
+    }
+
+   /**
+     * Prints an object and then terminates the line.
+     *
+     * @param x the object to print
+     */
+    public static void println(Object x) {
+        print(x);
+        println();
+    }
+
+   /**
+     * Prints a string and then terminates the line.
+     *
+     * @param x the string to print
+     */
+    public static void println(CharSequence x) {
+        print(x);
+        println();
+    }
+
+   /**
+     * Prints an integer and then terminates the line.
+     *
+     * @param x the integer to print
+     */
+    public static void println(int x) {
+        print(x);
+        println();
+    }
+
+   /**
+     * Prints a long integer and then terminates the line.
+     *
+     * @param x the long to print
+     */
+    public static void println(long x) {
+        print(x);
+        println();
+    }
+
+   /**
+     * Prints an object.
+     *
+     * @param x the object to print
+     */
+    public static void print(Object x) {
+        print(String.valueOf(x));
+    }
+
+   /**
+     * Prints a string, ASCII characters are copied without going through an encoder.
+     *
+     * @param x the string to print
+     */
+    public static void print(CharSequence x) {
+        int length = x.length();
+        for (int i = 0; i < length; i++) {
+            char c = x.charAt(i);
+            if (c < 0x80) {
+                write(c);
+            } else {
+                // rare, encode the rest of the string in one go
+                byte[] bytes = x.subSequence(i, length).toString().getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes) {
+                    write(b);
+                }
+                return;
+            }
+        }
+    }
+
+   /**
+     * Prints a character.
+     *
+     * @param x the character to print
+     */
+    public static void print(char x) {
+        if (x < 0x80) {
+            write(x);
+        } else {
+            print(String.valueOf(x));
+        }
+    }
+
+   /**
+     * Prints an integer.
+     *
+     * @param x the integer to print
+     */
+    public static void print(int x) {
+        print((long) x);
+    }
+
+   /**
+     * Prints a long integer.
+     *
+     * @param x the long to print
+     */
+    public static void print(long x) {
+        if (size + 20 > buffer.length) {
+            flush();
+        }
+
+        // write the digits backwards from the end of the number, working with negatives so MIN_VALUE fits
+        boolean negative = x < 0;
+        if (!negative) {
+            x = -x;
+        }
+
+        int digits = 1;
+        for (long rest = x / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+
+        if (negative) {
+            buffer[size++] = '-';
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' - (x % 10));
+            x /= 10;
+        }
+        size += digits;
+    }
+
+    // Add one byte to the buffer, writing the buffer out first if it is full
+    private static void write(int b) {
+        if (size == buffer.length) {
+            flush();
+        }
+        buffer[size++] = (byte) b;
+    }
+}
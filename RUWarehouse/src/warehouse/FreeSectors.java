@@ -0,0 +1,79 @@
+package warehouse;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * One bit per sector, set while the sector has room for another product.
+ * betterAddProduct looks for the first set bit at or after the home sector, 64 sectors per step,
+ * instead of asking every sector for its size.
+ *
+ * Bits are changed with compare-and-set, so sectors locked by different threads can update their bits at the same time.
+ */
+public class FreeSectors {
+    private AtomicLongArray words;
+    private int length;
+
+    // Every sector starts out free
+    public FreeSectors(int sectorCount) {
+        length = sectorCount;
+        words = new AtomicLongArray((sectorCount + 63) >>> 6);
+        for (int sector = 0; sector < sectorCount; sector++) {
+            markFree(sector);
+        }
+    }
+
+    public boolean isFree(int sector) {
+        return (words.get(sector >>> 6) & (1L << sector)) != 0;
+    }
+
+    public void markFree(int sector) {
+        int word = sector >>> 6;
+        long bit = 1L << sector; // shifts only use the low 6 bits
+        long current = words.get(word);
+        while ((current & bit) == 0 && !words.compareAndSet(word, current, current | bit)) {
+            current = words.get(word);
+        }
+    }
+
+    public void markFull(int sector) {
+        int word = sector >>> 6;
+        long bit = 1L << sector;
+        long current = words.get(word);
+        while ((current & bit) != 0 && !words.compareAndSet(word, current, current & ~bit)) {
+            current = words.get(word);
+        }
+    }
+
+    /**
+     * Find the first free sector at or after some sector, wrapping around past the last one
+     * @param from The sector to start at
+     * @return The free sector, or -1 if every sector is full
+     */
+    public int nextFree(int from) {
+        int found = scan(from, length);
+        if (found == -1) {
+            found = scan(0, from);
+        }
+        return found;
+    }
+
+    // The first free sector from from to to - 1, or -1
+    private int scan(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+
+        int word = from >>> 6;
+        long bits = words.get(word) & (-1L << from); // drop the sectors before from
+        while (bits == 0) {
+            word++;
+            if ((word << 6) >= to) {
+                return -1;
+            }
+            bits = words.get(word);
+        }
+
+        int sector = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return sector < to ? sector : -1;
+    }
+}
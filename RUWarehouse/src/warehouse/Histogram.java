@@ -0,0 +1,92 @@
+package warehouse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A histogram of non-negative long values in the style of HdrHistogram.
+ * Values below 64 get a bucket each, larger values share log-linear buckets:
+ * every power of two is split into 32 equal buckets, so a reported value is at most about 3% too high.
+ * The whole range of long takes 1888 buckets, and record() never allocates.
+ *
+ * Recording is thread safe, each value only costs a few atomic increments.
+ */
+public class Histogram {
+    private static final int EXACT = 64;          // values below this are exact
+    private static final int SUB_BUCKET_BITS = 5; // 32 buckets per power of two above that
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = EXACT + (63 - 6) * SUB_BUCKETS;
+
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong sum = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Add a value to the histogram
+     * @param value The value, negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Find the value some percentage of the recorded values are at or below
+     * @param percentile From 0 to 100
+     * @return The highest value of the bucket the percentile falls in, never more than the max, or 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(bucket), max.get());
+            }
+        }
+        return max.get(); // only reached while other threads are recording
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value); // at least 6
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return EXACT + (highestBit - 6) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int highestBit = (bucket - EXACT) / SUB_BUCKETS + 6;
+        int shift = highestBit - SUB_BUCKET_BITS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - EXACT) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,215 @@
+package warehouse;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * Maps every product id in a warehouse to where it is: its sector and its index in that sector.
+ * Sectors keep it up to date on every add, swap, set and deleteLast, so a product is found in one
+ * lookup wherever betterAddProduct put it.
+ *
+ * The map is split into segments by id hash. Each segment is an open addressing table of int keys and
+ * packed long locations, with linear probing and backward shift deletion, and grows at half full.
+ * A thread safe directory gives every segment a StampedLock: lookups read optimistically,
+ * updates take the write lock of their segment only.
+ */
+public class IdDirectory {
+    static final long ABSENT = -1;
+    private static final int THREAD_SAFE_SEGMENTS = 64;
+    private static final int INITIAL_SLOTS = 16;
+
+    private Segment[] segments;
+    private int segmentShift;   // hash >>> segmentShift picks the segment
+    private boolean threadSafe;
+
+    private static class Segment {
+        int[] keys = new int[INITIAL_SLOTS];
+        long[] locations = new long[INITIAL_SLOTS]; // ABSENT marks an empty slot
+        int size;
+        StampedLock lock;
+
+        Segment(boolean threadSafe) {
+            Arrays.fill(locations, ABSENT);
+            lock = threadSafe ? new StampedLock() : null;
+        }
+    }
+
+    /**
+     * @param threadSafe True if sectors on different threads update the directory at the same time
+     */
+    public IdDirectory(boolean threadSafe) {
+        this.threadSafe = threadSafe;
+        int count = threadSafe ? THREAD_SAFE_SEGMENTS : 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(threadSafe);
+        }
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count); // not used with a single segment
+    }
+
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
+    static long location(int sector, int index) {
+        return (long) sector << 32 | index;
+    }
+
+    static int sectorOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int indexOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Find where a product is
+     * @param id The id of the product
+     * @return Its location, see sectorOf() and indexOf(), or ABSENT
+     */
+    public long get(int id) {
+        int hash = hash(id);
+        Segment segment = segmentFor(hash);
+        if (!threadSafe) {
+            return lookup(segment, id, hash);
+        }
+
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long location = lookup(segment, id, hash);
+                if (segment.lock.validate(stamp)) {
+                    return location;
+                }
+            } catch (RuntimeException e) {
+                // read the tables halfway through a resize, fall through to the locked lookup
+            }
+        }
+
+        stamp = segment.lock.readLock();
+        try {
+            return lookup(segment, id, hash);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Record where a product is now
+     * @param id The id of the product
+     * @param location Its location
+     */
+    public void put(int id, long location) {
+        int hash = hash(id);
+        Segment segment = segmentFor(hash);
+        long stamp = threadSafe ? segment.lock.writeLock() : 0;
+        try {
+            int slot = slotOf(segment, id, hash);
+            if (segment.locations[slot] == ABSENT) {
+                segment.keys[slot] = id;
+                segment.size++;
+            }
+            segment.locations[slot] = location;
+
+            if (segment.size * 2 > segment.keys.length) {
+                grow(segment);
+            }
+        } finally {
+            if (threadSafe) {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Forget a product, but only if it is still recorded at some location
+     * @param id The id of the product
+     * @param location Where the caller last put it
+     */
+    public void remove(int id, long location) {
+        int hash = hash(id);
+        Segment segment = segmentFor(hash);
+        long stamp = threadSafe ? segment.lock.writeLock() : 0;
+        try {
+            int slot = slotOf(segment, id, hash);
+            if (segment.locations[slot] == location) {
+                delete(segment, slot);
+            }
+        } finally {
+            if (threadSafe) {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9; // spreads consecutive ids over the table
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static long lookup(Segment segment, int id, int hash) {
+        int slot = slotOf(segment, id, hash);
+        return segment.locations[slot];
+    }
+
+    // The slot holding id, or the empty slot where it would go
+    private static int slotOf(Segment segment, int id, int hash) {
+        int mask = segment.keys.length - 1;
+        int slot = hash & mask;
+        while (segment.locations[slot] != ABSENT && segment.keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Empty a slot and move later entries of the same probe run back, so no lookup stops early
+    private static void delete(Segment segment, int slot) {
+        int mask = segment.keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while (segment.locations[next] != ABSENT) {
+            int home = hash(segment.keys[next]) & mask;
+            // move next into the hole unless its home lies after the hole, up to next, in probe order
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                segment.keys[hole] = segment.keys[next];
+                segment.locations[hole] = segment.locations[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        segment.locations[hole] = ABSENT;
+        segment.size--;
+    }
+
+    private static void grow(Segment segment) {
+        int[] oldKeys = segment.keys;
+        long[] oldLocations = segment.locations;
+
+        int[] keys = new int[oldKeys.length * 2];
+        long[] locations = new long[oldKeys.length * 2];
+        Arrays.fill(locations, ABSENT);
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldLocations[i] != ABSENT) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (locations[slot] != ABSENT) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                locations[slot] = oldLocations[i];
+            }
+        }
+
+        // locations first, so an optimistic reader that sees the new keys never indexes past the old locations
+        segment.locations = locations;
+        segment.keys = keys;
+    }
+}
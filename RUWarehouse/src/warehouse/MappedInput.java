@@ -0,0 +1,77 @@
+package warehouse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reads binary values from a memory-mapped file of any size.
+ * The file is mapped in windows, when a value does not fit in what is left of the current window
+ * a new window is mapped starting at that value, so values never straddle two windows.
+ */
+public class MappedInput implements AutoCloseable {
+    static final int WINDOW_SIZE = 1 << 28;
+
+    private FileChannel channel;
+    private long size;
+    private long windowStart; // file offset of the current window
+    private ByteBuffer window;
+
+    public MappedInput(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        windowStart = 0;
+        window = ByteBuffer.allocate(0);
+    }
+
+    // Read a big endian int
+    public int readInt() throws IOException {
+        require(4);
+        return window.getInt();
+    }
+
+    // Read a big endian long
+    public long readLong() throws IOException {
+        require(8);
+        return window.getLong();
+    }
+
+    // Read length bytes into the start of bytes, which must be large enough
+    public void readFully(byte[] bytes, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            require(1);
+            int n = Math.min(length - done, window.remaining());
+            window.get(bytes, done, n);
+            done += n;
+        }
+    }
+
+    // Get the number of bytes that have not been read yet
+    public long remaining() {
+        return size - windowStart - window.position();
+    }
+
+    // Make sure the next n bytes (at most 8) are in the current window
+    private void require(int n) throws IOException {
+        if (window.remaining() >= n) {
+            return;
+        }
+
+        long next = windowStart + window.position();
+        if (size - next < n) {
+            throw new EOFException();
+        }
+        windowStart = next;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(WINDOW_SIZE, size - next));
+        window.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,96 @@
+package warehouse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/*
+ * Stores product names as UTF-8 bytes in direct buffers outside the Java heap.
+ * Names are bump allocated, a name is referred to by a handle (chunk << 32 | offset) and its length.
+ * Freed names are only counted, the owner reclaims the space by relocating every live name
+ * between beginCompaction() and endCompaction().
+ */
+public class NameArena {
+    private int chunkSize;
+    private ArrayList<ByteBuffer> chunks;
+    private int position;   // next free byte in the last chunk
+    private long used;      // bytes handed out since the last compaction
+    private long garbage;   // bytes handed out and freed since the last compaction
+
+    private NameArena next; // the arena being filled while compacting
+
+    public NameArena() {
+        this(1 << 20);
+    }
+
+    public NameArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        chunks = new ArrayList<>();
+    }
+
+    // Copy the UTF-8 bytes of a name into the arena and return its handle
+    public long store(byte[] bytes) {
+        long handle = allocate(bytes.length);
+        chunk(handle).put(offset(handle), bytes);
+        return handle;
+    }
+
+    // Read back the name stored at some handle
+    public String read(long handle, int length) {
+        byte[] bytes = new byte[length];
+        chunk(handle).get(offset(handle), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Mark a name as no longer referenced
+    public void free(int length) {
+        garbage += length;
+    }
+
+    // True once more than half of the allocated bytes belong to freed names
+    public boolean needsCompaction() {
+        return garbage > chunkSize && garbage * 2 > used;
+    }
+
+    // Start moving live names into fresh chunks, every live handle has to go through relocate()
+    public void beginCompaction() {
+        next = new NameArena(chunkSize);
+    }
+
+    // Copy a live name into the new chunks and return its new handle
+    public long relocate(long handle, int length) {
+        long moved = next.allocate(length);
+        ByteBuffer from = chunk(handle).slice(offset(handle), length);
+        next.chunk(moved).put(next.offset(moved), from, 0, length);
+        return moved;
+    }
+
+    // Drop the old chunks, handles that were not relocated are no longer valid
+    public void endCompaction() {
+        chunks = next.chunks;
+        position = next.position;
+        used = next.used;
+        garbage = 0;
+        next = null;
+    }
+
+    private long allocate(int length) {
+        if (chunks.isEmpty() || position + length > chunkSize) {
+            chunks.add(ByteBuffer.allocateDirect(Math.max(chunkSize, length)));
+            position = 0;
+        }
+
+        long handle = ((long) (chunks.size() - 1) << 32) | position;
+        position += length;
+        used += length;
+        return handle;
+    }
+
+    private ByteBuffer chunk(long handle) {
+        return chunks.get((int) (handle >>> 32));
+    }
+
+    private int offset(long handle) {
+        return (int) handle;
+    }
+}
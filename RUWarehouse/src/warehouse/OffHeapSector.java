@@ -0,0 +1,328 @@
+package warehouse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/*
+ * A Sector whose products live in fixed width records inside a direct ByteBuffer.
+ * The buffer region of a sector is [capacity records][id -> index hash table], and
+ * swap, swim and sink work directly on the record offsets.
+ * Names are kept in a NameArena, a record only holds the handle and length of its name.
+ *
+ * The public methods behave like the ones in Sector and toString prints the same text.
+ * get() returns a copy of the product, changes have to go through the index based setters.
+ * Like Sector, an id may be added more than once: the table only holds ids with one copy,
+ * and indexOf scans for the first copy of an id that has more.
+ */
+public class OffHeapSector {
+    // Record layout, all fields are ints except the name handle
+    static final int ID = 0;
+    static final int POPULARITY = 4;
+    static final int STOCK = 8;
+    static final int LAST_PURCHASE_DAY = 12;
+    static final int DEMAND = 16;
+    static final int NAME_LENGTH = 20;
+    static final int NAME_HANDLE = 24;
+    static final int RECORD_SIZE = 32;
+
+    private ByteBuffer memory;
+    private int base;       // offset of record 1 in memory, index 0 is not stored
+    private int table;      // offset of the hash table in memory
+    private int tableMask;  // number of hash table entries - 1
+    private int capacity;
+    private int currentSize;
+    private NameArena names;
+    private HashMap<Integer, Integer> copies; // id -> extra copies, for ids added more than once, created when first needed
+
+    /**
+     * Creates an empty sector on a region of memory that was zeroed and is at least regionSize(capacity) bytes long
+     * @param memory The buffer holding the region
+     * @param base The offset of the region in the buffer
+     * @param capacity The maximum number of products in the sector
+     * @param names The arena holding the product names
+     */
+    public OffHeapSector(ByteBuffer memory, int base, int capacity, NameArena names) {
+        this.memory = memory;
+        this.base = base;
+        this.capacity = capacity;
+        this.names = names;
+        table = base + capacity * RECORD_SIZE;
+        tableMask = tableSize(capacity) - 1;
+        currentSize = 0;
+    }
+
+    // Get the number of bytes needed to store a sector of some capacity
+    public static int regionSize(int capacity) {
+        return capacity * RECORD_SIZE + tableSize(capacity) * 8;
+    }
+
+    // The hash table is kept at most half full
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(Math.max(2, capacity) * 4 - 1);
+    }
+
+    // Add an item to the end of the sector, index 0 is ignored
+    public void add(Product prod) {
+        add(prod.getId(), prod.getName(), prod.getStock(), prod.getLastPurchaseDay(), prod.getDemand());
+    }
+
+    // Add an item to the end of the sector without creating a Product
+    public void add(int id, String name, int s, int l, int d) {
+        currentSize++;
+        write(currentSize, id, name, s, l, d);
+        arrived(currentSize);
+    }
+
+    // Set some index, valid indices are from 1 to currentSize inclusive
+    public void set(int index, Product prod) {
+        leaving(index);
+        names.free(memory.getInt(offset(index) + NAME_LENGTH));
+        write(index, prod.getId(), prod.getName(), prod.getStock(), prod.getLastPurchaseDay(), prod.getDemand());
+        arrived(index);
+    }
+
+    // A product was written at some index, put it in the table, or count it as another copy if its id is already here
+    private void arrived(int index) {
+        int id = getId(index);
+        int existing = tableIndexOf(id);
+        if (existing != -1 || (copies != null && copies.containsKey(id))) {
+            if (copies == null) {
+                copies = new HashMap<>();
+            }
+            copies.merge(id, 1, Integer::sum);
+            if (existing != -1) {
+                tableRemove(id, existing); // while there are copies, indexOf scans instead
+            }
+            return;
+        }
+        tablePut(id, index);
+    }
+
+    // The product at some index is about to go, forget it, and put the last copy of its id back in the table
+    private void leaving(int index) {
+        int id = getId(index);
+        Integer extra = copies == null ? null : copies.get(id);
+        if (extra == null) {
+            tableRemove(id, index);
+        } else if (extra > 1) {
+            copies.put(id, extra - 1);
+        } else {
+            copies.remove(id);
+            for (int i = 1; i <= currentSize; i++) {
+                if (i != index && getId(i) == id) {
+                    tablePut(id, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void write(int index, int id, String name, int s, int l, int d) {
+        int at = offset(index);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+
+        memory.putInt(at + ID, id);
+        memory.putInt(at + POPULARITY, l + d);
+        memory.putInt(at + STOCK, s);
+        memory.putInt(at + LAST_PURCHASE_DAY, l);
+        memory.putInt(at + DEMAND, d);
+        memory.putInt(at + NAME_LENGTH, bytes.length);
+        memory.putLong(at + NAME_HANDLE, names.store(bytes));
+    }
+
+    // Delete the last element currently stored
+    public void deleteLast() {
+        leaving(currentSize);
+        names.free(memory.getInt(offset(currentSize) + NAME_LENGTH));
+        currentSize--;
+    }
+
+    // Get a copy of the product at some index
+    public Product get(int index) {
+        return new Product(getId(index), getName(index), getStock(index), getLastPurchaseDay(index), getDemand(index));
+    }
+
+    // Get the current size
+    public int getSize() {
+        return currentSize;
+    }
+
+    // Get the maximum number of products this sector can hold
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Field accessors for the product at some index
+    public int getId(int index) { return memory.getInt(offset(index) + ID); }
+    public int getStock(int index) { return memory.getInt(offset(index) + STOCK); }
+    public int getLastPurchaseDay(int index) { return memory.getInt(offset(index) + LAST_PURCHASE_DAY); }
+    public int getDemand(int index) { return memory.getInt(offset(index) + DEMAND); }
+    public int getPopularity(int index) { return memory.getInt(offset(index) + POPULARITY); }
+
+    public String getName(int index) {
+        int at = offset(index);
+        return names.read(memory.getLong(at + NAME_HANDLE), memory.getInt(at + NAME_LENGTH));
+    }
+
+    // Field mutators for the product at some index, same rules as the Product setters
+    public void updateStock(int index, int s) { setStock(index, getStock(index) + s); }
+    public void setStock(int index, int s) { memory.putInt(offset(index) + STOCK, s); }
+    public void setLastPurchaseDay(int index, int l) {
+        int at = offset(index);
+        memory.putInt(at + LAST_PURCHASE_DAY, l);
+        memory.putInt(at + POPULARITY, l + memory.getInt(at + DEMAND));
+    }
+
+    public void updateDemand(int index, int d) {
+        int at = offset(index);
+        int demand = memory.getInt(at + DEMAND) + d;
+        memory.putInt(at + DEMAND, demand);
+        memory.putInt(at + POPULARITY, memory.getInt(at + LAST_PURCHASE_DAY) + demand);
+    }
+
+    // Swap the items at 2 indices
+    public void swap(int index1, int index2) {
+        int at1 = offset(index1);
+        int at2 = offset(index2);
+
+        for (int field = 0; field < RECORD_SIZE; field += 8) {
+            long temp = memory.getLong(at1 + field);
+            memory.putLong(at1 + field, memory.getLong(at2 + field));
+            memory.putLong(at2 + field, temp);
+        }
+
+        track(memory.getInt(at1 + ID), index1);
+        track(memory.getInt(at2 + ID), index2);
+    }
+
+    // Apply the swim algorithm from class on some index
+    public void swim(int index) {
+        while (index > 1 && getPopularity(index) < getPopularity(index/2)) {
+            swap(index, index/2);
+            index /= 2;
+        }
+    }
+
+    // Apply the sink algorithm from class on some index
+    public void sink(int index) {
+        while (index*2 <= currentSize) {
+            int smallestChild;
+
+            if (index*2 + 1 > currentSize
+            || getPopularity(index*2) < getPopularity(index*2 + 1)) {
+                smallestChild = index*2;
+            }
+            else smallestChild = index*2 + 1;
+
+            if (getPopularity(index) > getPopularity(smallestChild)) {
+                swap(index, smallestChild);
+                index = smallestChild;
+            }
+            else break;
+        }
+    }
+
+    // Get the index of the product with some id, or -1 if it is not in this sector
+    public int indexOf(int id) {
+        if (copies != null && copies.containsKey(id)) {
+            // the first copy, like the scan of the original sector
+            for (int i = 1; i <= currentSize; i++) {
+                if (getId(i) == id) {
+                    return i;
+                }
+            }
+        }
+        return tableIndexOf(id);
+    }
+
+    private int tableIndexOf(int id) {
+        for (int i = home(id); ; i = (i + 1) & tableMask) {
+            int index = memory.getInt(entry(i) + 4);
+            if (index == 0) {
+                return -1;
+            }
+            if (memory.getInt(entry(i)) == id) {
+                return index;
+            }
+        }
+    }
+
+    // Move every name of this sector into the arena's new chunks, see NameArena.beginCompaction()
+    void relocateNames() {
+        for (int i = 1; i <= currentSize; i++) {
+            int at = offset(i);
+            long moved = names.relocate(memory.getLong(at + NAME_HANDLE), memory.getInt(at + NAME_LENGTH));
+            memory.putLong(at + NAME_HANDLE, moved);
+        }
+    }
+
+    public String toString() {
+        StringBuilder sectorString = new StringBuilder("{null");
+        for (int i = 1; i <= currentSize; i++) {
+            sectorString.append("; (").append(getName(i)).append(": ")
+                        .append(getStock(i)).append(", ").append(getPopularity(i)).append(')');
+        }
+
+        return sectorString.append('}').toString();
+    }
+
+    private int offset(int index) {
+        return base + (index - 1) * RECORD_SIZE;
+    }
+
+    // Hash table entries are (id, index) pairs, index 0 marks an empty entry
+    private int entry(int i) {
+        return table + i * 8;
+    }
+
+    private int home(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & tableMask;
+    }
+
+    // Record that a product moved to some index, ids with copies are not in the table
+    private void track(int id, int index) {
+        if (copies == null || !copies.containsKey(id)) {
+            tablePut(id, index);
+        }
+    }
+
+    private void tablePut(int id, int index) {
+        int i = home(id);
+        while (memory.getInt(entry(i) + 4) != 0 && memory.getInt(entry(i)) != id) {
+            i = (i + 1) & tableMask;
+        }
+        memory.putInt(entry(i), id);
+        memory.putInt(entry(i) + 4, index);
+    }
+
+    // Remove the entry of id if it still points at index, shifting later entries back to close the gap
+    private void tableRemove(int id, int index) {
+        int i = home(id);
+        while (memory.getInt(entry(i)) != id || memory.getInt(entry(i) + 4) != index) {
+            if (memory.getInt(entry(i) + 4) == 0) {
+                return;
+            }
+            i = (i + 1) & tableMask;
+        }
+
+        int j = i;
+        while (true) {
+            j = (j + 1) & tableMask;
+            int moving = memory.getInt(entry(j) + 4);
+            if (moving == 0) {
+                break;
+            }
+
+            int k = home(memory.getInt(entry(j)));
+            // The entry at j may only move back to i if i lies cyclically in [k, j)
+            boolean movable = (i <= j) ? (k <= i || k > j) : (k <= i && k > j);
+            if (movable) {
+                memory.putLong(entry(i), memory.getLong(entry(j)));
+                i = j;
+            }
+        }
+        memory.putLong(entry(i), 0L);
+    }
+}
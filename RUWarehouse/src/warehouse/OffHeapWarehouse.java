@@ -0,0 +1,221 @@
+package warehouse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * A Warehouse that keeps every product outside the Java heap, so very large catalogs
+ * do not add to garbage collection work.
+ * Sectors are carved out of direct buffers of at most 1 GB each, and names go into a shared NameArena.
+ * Each sector finds its own products with its own hash table, so only the products betterAddProduct
+ * put outside their home sector are kept in an IdDirectory, to know which sector to ask.
+ *
+ * addProduct, restockProduct, purchaseProduct, deleteProduct, betterAddProduct and toString
+ * give the same results as Warehouse.
+ */
+public class OffHeapWarehouse {
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    private OffHeapSector[] sectors;
+    private NameArena names;
+    private int capacity;   // maximum number of products per sector
+    private int sectorMask; // sectors.length - 1 when it is a power of two, otherwise -1
+    private IdDirectory relocated = new IdDirectory(false); // id -> location(sector, 0) of products outside their home sector
+
+    public OffHeapWarehouse() {
+        this(10, 5);
+    }
+
+    /**
+     * Creates an off-heap warehouse with a custom number of sectors, each holding at most capacity products
+     * @param sectorCount The number of sectors, products are routed to sector id % sectorCount
+     * @param capacity The maximum number of products per sector
+     */
+    public OffHeapWarehouse(int sectorCount, int capacity) {
+        if (sectorCount < 1) {
+            throw new IllegalArgumentException("sector count must be positive: " + sectorCount);
+        }
+        if (capacity < 1 || OffHeapSector.regionSize(capacity) > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("sector capacity out of range: " + capacity);
+        }
+
+        this.capacity = capacity;
+        sectorMask = Integer.bitCount(sectorCount) == 1 ? sectorCount - 1 : -1;
+        sectors = new OffHeapSector[sectorCount];
+        names = new NameArena();
+
+        int regionSize = OffHeapSector.regionSize(capacity);
+        int sectorsPerBuffer = MAX_BUFFER_SIZE / regionSize;
+        ByteBuffer memory = null;
+
+        for (int i = 0; i < sectorCount; i++) {
+            if (i % sectorsPerBuffer == 0) {
+                int count = Math.min(sectorsPerBuffer, sectorCount - i);
+                memory = ByteBuffer.allocateDirect(count * regionSize).order(ByteOrder.nativeOrder());
+            }
+            sectors[i] = new OffHeapSector(memory, (i % sectorsPerBuffer) * regionSize, capacity, names);
+        }
+    }
+
+    // Find the home sector of some id, same routing as Warehouse
+    int sectorOf(int id) {
+        if (sectorMask != -1) {
+            return id & sectorMask;
+        }
+        return id % sectors.length;
+    }
+
+    // The sector that holds some product, or its home sector if it is not in the warehouse
+    int holderOf(int id) {
+        long location = relocated.get(id);
+        return location == IdDirectory.ABSENT ? sectorOf(id) : IdDirectory.sectorOf(location);
+    }
+
+    /**
+     * Add a product, evicting the least popular product of its sector if the sector is full
+     * @param id The id of the item to add
+     * @param name The name of the item to add
+     * @param stock The stock of the item to add
+     * @param day The day of the item to add
+     * @param demand Initial demand of the item to add
+     */
+    public void addProduct(int id, String name, int stock, int day, int demand) {
+        deleteProduct(id); // same as Warehouse, a product with the same id is replaced
+        int sector_id = sectorOf(id);
+        OffHeapSector sector = sectors[sector_id];
+
+        if (sector.getSize() == capacity) {
+            forget(sector.getId(1), sector_id);
+            sector.swap(1, sector.getSize());
+            sector.deleteLast();
+            sector.sink(1);
+            compactNamesIfNeeded();
+        }
+
+        sector.add(id, name, stock, day, demand);
+        sector.swim(sector.getSize());
+    }
+
+    /**
+     * Update the stock of some item by some amount
+     * @param id The id of the item to restock
+     * @param amount The amount by which to update the stock
+     */
+    public void restockProduct(int id, int amount) {
+        OffHeapSector sector = sectors[holderOf(id)];
+        int i = sector.indexOf(id);
+
+        if (i != -1) {
+            sector.updateStock(i, amount);
+        }
+    }
+
+    /**
+     * Delete some arbitrary product while maintaining the heap structure
+     * @param id The id of the product to delete
+     */
+    public void deleteProduct(int id) {
+        int sector_id = holderOf(id);
+        OffHeapSector sector = sectors[sector_id];
+        int i = sector.indexOf(id);
+
+        if (i == -1) {
+            return;
+        }
+        forget(id, sector_id);
+
+        boolean deleting_last = sector.getSize() == i;
+        sector.swap(i, sector.getSize());
+        sector.deleteLast();
+
+        if (!deleting_last && sector.getSize() > 0) {
+            sector.sink(i);
+            sector.swim(i);
+        }
+        compactNamesIfNeeded();
+    }
+
+    /**
+     * Simulate a purchase order for some product
+     * @param id The id of the purchased product
+     * @param day The current day
+     * @param amount The amount purchased
+     */
+    public void purchaseProduct(int id, int day, int amount) {
+        OffHeapSector sector = sectors[holderOf(id)];
+        int i = sector.indexOf(id);
+
+        if (i != -1 && amount < sector.getStock(i)) {
+            sector.setLastPurchaseDay(i, day);
+            sector.setStock(i, sector.getStock(i) - amount);
+            sector.updateDemand(i, amount);
+            sector.sink(i);
+        }
+    }
+
+    /**
+     * Add a product into the first sector with free space, starting at its home sector
+     * @param id The id of the item to add
+     * @param name The name of the item to add
+     * @param stock The stock of the item to add
+     * @param day The day of the item to add
+     * @param demand Initial demand of the item to add
+     */
+    public void betterAddProduct(int id, String name, int stock, int day, int demand) {
+        deleteProduct(id);
+        int home = sectorOf(id);
+        int ind = home;
+
+        for (int count = 0; count < sectors.length; count++) {
+            if (sectors[ind].getSize() < capacity) {
+                sectors[ind].add(id, name, stock, day, demand);
+                sectors[ind].swim(sectors[ind].getSize());
+                if (ind != home) {
+                    relocated.put(id, IdDirectory.location(ind, 0));
+                }
+                return;
+            }
+
+            ind++;
+            if (ind == sectors.length) {
+                ind = 0;
+            }
+        }
+
+        addProduct(id, name, stock, day, demand);
+    }
+
+    // Called when a product leaves a sector, drops it from the directory if it was not in its home sector
+    private void forget(int id, int sector_id) {
+        if (sector_id != sectorOf(id)) {
+            relocated.remove(id, IdDirectory.location(sector_id, 0));
+        }
+    }
+
+    private void compactNamesIfNeeded() {
+        if (names.needsCompaction()) {
+            names.beginCompaction();
+            for (OffHeapSector sector : sectors) {
+                sector.relocateNames();
+            }
+            names.endCompaction();
+        }
+    }
+
+    /*
+     * Returns the string representation of the warehouse
+     */
+    public String toString() {
+        StringBuilder warehouseString = new StringBuilder("[\n");
+
+        for (int i = 0; i < sectors.length; i++) {
+            warehouseString.append('\t').append(sectors[i].toString()).append('\n');
+        }
+
+        return warehouseString.append(']').toString();
+    }
+
+    public OffHeapSector[] getSectors() {
+        return sectors;
+    }
+}
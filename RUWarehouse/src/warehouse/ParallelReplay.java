@@ -0,0 +1,108 @@
+package warehouse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Replays a command stream on several threads at once.
+ * Commands are split by the sector of their id, and every sector belongs to exactly one worker,
+ * which runs its commands in file order. Commands on different sectors never touch the same data,
+ * so the final warehouse is the same as after a sequential replay.
+ * betterAddProduct can write into any sector, so each betteradd command waits for all workers
+ * and then runs alone. So does every command on a product that betterAddProduct put outside its
+ * home sector, since it touches a sector that belongs to another worker.
+ * Only a betteradd moves a product out of its home sector, so checking that when the command is
+ * handed out is enough.
+ * A warehouse with an admission filter or global eviction is replayed on the calling thread, since its
+ * admission and eviction decisions depend on the order of commands across all sectors.
+ */
+public class ParallelReplay {
+    private Warehouse warehouse;
+    private int threads;
+
+    public ParallelReplay(Warehouse warehouse, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + threads);
+        }
+        this.warehouse = warehouse;
+        this.threads = threads;
+    }
+
+    /**
+     * Apply every command to the warehouse
+     * @param commands The commands in file order
+     */
+    public void replay(Command[] commands) {
+        if (warehouse.hasAdmissionFilter() || warehouse.hasGlobalEviction()) {
+            // admission and eviction decisions depend on the order of commands across all sectors
+            for (Command command : commands) {
+                command.apply(warehouse);
+            }
+            return;
+        }
+
+        warehouse.useThreadSafeDirectory(); // workers on different sectors update it at the same time
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            int[][] partitions = new int[threads][16]; // indices into commands, per worker
+            int[] sizes = new int[threads];
+
+            for (int i = 0; i < commands.length; i++) {
+                int home = warehouse.sectorOf(commands[i].getId());
+                if (commands[i].getType() == Command.BETTER_ADD || warehouse.holderOf(commands[i].getId()) != home) {
+                    runPartitions(pool, commands, partitions, sizes);
+                    commands[i].apply(warehouse);
+                    continue;
+                }
+
+                int worker = home % threads;
+                if (sizes[worker] == partitions[worker].length) {
+                    partitions[worker] = Arrays.copyOf(partitions[worker], sizes[worker] * 2);
+                }
+                partitions[worker][sizes[worker]++] = i;
+            }
+
+            runPartitions(pool, commands, partitions, sizes);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Run every pending partition in parallel, wait for all of them and clear them
+    private void runPartitions(ExecutorService pool, Command[] commands, int[][] partitions, int[] sizes) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < threads; w++) {
+            int[] partition = partitions[w];
+            int size = sizes[w];
+            if (size == 0) {
+                continue;
+            }
+
+            tasks.add(() -> {
+                for (int i = 0; i < size; i++) {
+                    commands[partition[i]].apply(warehouse);
+                }
+                return null;
+            });
+            sizes[w] = 0;
+        }
+
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("replay was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("replay failed", e.getCause());
+        }
+    }
+}
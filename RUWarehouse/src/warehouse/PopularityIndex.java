@@ -0,0 +1,53 @@
+package warehouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * Every product of a warehouse ordered by popularity, enabled with Warehouse.Builder.popularityIndex(),
+ * so topK() reads k entries instead of every product. Keys are popularity << 32 | id, like StockIndex.
+ *
+ * A key must always match the product's current popularity, so the warehouse removes a product before
+ * a purchase changes its popularity and adds it back afterwards. The methods are synchronized, since
+ * the sectors of a ConcurrentWarehouse share one index.
+ */
+public class PopularityIndex {
+    private TreeMap<Long, Product> byPopularity = new TreeMap<>();
+
+    private static long key(Product product) {
+        return (long) product.getPopularity() << 32 | (product.getId() & 0xFFFFFFFFL);
+    }
+
+    public synchronized void add(Product product) {
+        byPopularity.put(key(product), product);
+    }
+
+    // Drop a product if it is the one indexed under its key
+    public synchronized void remove(Product product) {
+        long key = key(product);
+        if (byPopularity.get(key) == product) {
+            byPopularity.remove(key);
+        }
+    }
+
+    /**
+     * Get the k most popular products, in O(log n + k)
+     * @param k How many products to return
+     * @return Up to k products, most popular first, then by id from highest
+     */
+    public synchronized List<ProductView> highest(int k) {
+        List<ProductView> result = new ArrayList<>(Math.min(k, 1024));
+        for (Product product : byPopularity.descendingMap().values()) {
+            if (result.size() == k) {
+                break;
+            }
+            result.add(new ProductView(product));
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return byPopularity.size();
+    }
+}
@@ -0,0 +1,24 @@
+package warehouse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Something that streams its string representation instead of building it first,
+ * implemented by Product, Sector and Warehouse so large warehouses print without one huge String.
+ */
+public interface Printable {
+    // Append the string representation to out
+    void appendTo(Appendable out) throws IOException;
+
+    // Write the string representation as UTF-8, out is flushed but not closed
+    default void writeTo(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        appendTo(writer);
+        writer.flush();
+    }
+}
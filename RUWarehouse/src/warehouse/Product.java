@@ -1,12 +1,19 @@
 package warehouse;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /*
  * This class represents a warehouse Product.
+ * Stock is only accessed through a VarHandle, so restocks and purchases can change it
+ * atomically without holding the lock of the product's sector.
  * 
  * @author Ishaan Ivaturi
  * 
  */ 
-public class Product {
+public class Product implements Printable {
     private int id;              // product identification
     private String name;         // product name
     private int stock;           // number of items in stock
@@ -14,6 +21,15 @@ public class Product {
     private int demand;          // initial demand is obtained from a survey prior to product release
     private int popularity;      // Initial Demand + Total Amount Purchased + Date of Last Purchase
 
+    private static final VarHandle STOCK;
+    static {
+        try {
+            STOCK = MethodHandles.lookup().findVarHandle(Product.class, "stock", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public Product(int i, String n, int s, int l, int d) {
         id = i;
         name = n;
@@ -36,15 +52,32 @@ public class Product {
     }
 
     public String getName() { return name; }
-    public int getStock() { return stock; }
+    public int getStock() { return (int) STOCK.getVolatile(this); }
     public int getLastPurchaseDay() { return lastPurchaseDay; }
     public int getDemand() { return demand; }
     public int getPopularity() { return popularity; }
 
     public void setId(int i) { id = i; }
     public void setName(String n) { name = n; }
-    public void updateStock(int s) { stock += s; }
-    public void setStock(int s) { stock = s; }
+    public void updateStock(int s) { STOCK.getAndAdd(this, s); }
+    public void setStock(int s) { STOCK.setVolatile(this, s); }
+
+    /**
+     * Atomically take some amount out of stock, only if more than that amount is in stock
+     * @param amount The amount to take
+     * @return true if the stock was decreased
+     */
+    public boolean takeStock(int amount) {
+        int current = getStock();
+        while (amount < current) {
+            int witness = (int) STOCK.compareAndExchange(this, current, current - amount);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
+        }
+        return false;
+    }
     public void setLastPurchaseDay(int l) {
         lastPurchaseDay = l;
         popularity = lastPurchaseDay + demand;
@@ -72,6 +105,45 @@ public class Product {
     }
 
     public String toString() {
-        return String.format("(%s: %d, %d)", name, stock, popularity);
+        StringBuilder productString = new StringBuilder();
+        try {
+            appendTo(productString);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return productString.toString();
+    }
+
+    /*
+     * Appends the string representation "(name: stock, popularity)" without building any intermediate strings
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append('(').append(name).append(": ");
+        appendInt(out, getStock());
+        out.append(", ");
+        appendInt(out, popularity);
+        out.append(')');
+    }
+
+    // Append the decimal digits of x one character at a time
+    static void appendInt(Appendable out, int x) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(x);
+            return;
+        }
+
+        long value = x;
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + (value / divisor) % 10));
+        }
     }
 }
@@ -0,0 +1,51 @@
+package warehouse;
+
+/*
+ * An immutable copy of a Product, as returned by Warehouse.getProduct(id).
+ * It does not change when the product it was taken from changes.
+ */
+public final class ProductView {
+    private final int id;
+    private final String name;
+    private final int stock;
+    private final int lastPurchaseDay;
+    private final int demand;
+    private final int popularity;
+
+    public ProductView(Product p) {
+        this(p.getId(), p.getName(), p.getStock(), p.getLastPurchaseDay(), p.getDemand(), p.getPopularity());
+    }
+
+    public ProductView(int id, String name, int stock, int lastPurchaseDay, int demand, int popularity) {
+        this.id = id;
+        this.name = name;
+        this.stock = stock;
+        this.lastPurchaseDay = lastPurchaseDay;
+        this.demand = demand;
+        this.popularity = popularity;
+    }
+
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public int getStock() { return stock; }
+    public int getLastPurchaseDay() { return lastPurchaseDay; }
+    public int getDemand() { return demand; }
+    public int getPopularity() { return popularity; }
+
+    public boolean equals(Object other) {
+        if ( !(other instanceof ProductView) ) {
+            return false;
+        }
+        ProductView o = (ProductView) other;
+        return id == o.id && stock == o.stock && lastPurchaseDay == o.lastPurchaseDay
+            && demand == o.demand && name.equals(o.name);
+    }
+
+    public int hashCode() {
+        return id;
+    }
+
+    public String toString() {
+        return "(" + name + ": " + stock + ", " + popularity + ")";
+    }
+}
@@ -0,0 +1,24 @@
+package warehouse;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/*
+ * Use this class to run a binary command log (see ConvertCommands) and print the final warehouse,
+ * the output is the same as running Everything on the original text file.
+ */
+public class ReplayBinary {
+    public static void main(String[] args) throws IOException {
+        FastStdOut.setFile(args[1]);
+
+        Warehouse warehouse = new Warehouse();
+
+        CommandLogReader log = new CommandLogReader(new FileInputStream(args[0]));
+        log.replay(warehouse);
+        log.close();
+
+        warehouse.appendTo(FastStdOut.appendable());
+        FastStdOut.println();
+        FastStdOut.close();
+    }
+}
@@ -1,31 +1,200 @@
 package warehouse;
 
-public class Sector {
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+
+/*
+ * A 1-indexed min heap of products ordered by popularity.
+ * Every node has arity children, 2 unless the warehouse asks for more: the children of index i are
+ * arity * (i - 1) + 2 to arity * i + 1, and its parent is (i - 2) / arity + 1.
+ * A wider heap is shallower, so swim and sink take fewer steps, and sink's children sit next to each other
+ * in the array, which pays off for sectors of thousands of products.
+ *
+ * A sector on its own may hold the same id more than once, like the original sector. Ids added once are found
+ * through the positions map; an id with copies falls back to a scan that finds its first copy, so no copy
+ * is ever lost. The sectors of a Warehouse share an IdDirectory instead, which holds one location per id,
+ * so there an id may only be in the warehouse once (Warehouse replaces the old product, see addProduct).
+ *
+ * Next to the products the sector keeps their ids and popularities in plain int arrays, in the same order,
+ * so swim and sink compare neighbouring ints instead of following a pointer to a Product for every step.
+ * get() still returns the live Product. A product whose popularity changed, like after a purchase,
+ * must be swum or sunk from its index, which reads its new popularity before it moves.
+ */
+public class Sector implements Printable {
     private Product[] products;
+    private int[] ids;        // ids[i] is the id of products[i]
+    private int[] popularity; // popularity[i] is the popularity of products[i] when it was stored or last sifted
     private int currentSize;
+    private HashMap<Integer, Integer> positions; // product id -> index in products, null when there is a directory
+    private HashMap<Integer, Integer> copies;    // id -> extra copies, for ids added more than once, created when first needed
+    private IdDirectory directory;               // shared by every sector of a warehouse, or null
+    private int sectorIndex;                     // the index of this sector in the directory
+    private int arity = 2;                       // children per heap node
     
     public Sector() {
-        products = new Product[6];
+        this(5);
+    }
+
+    // Creates an empty sector that holds at most capacity products
+    public Sector(int capacity) {
+        products = new Product[capacity+1];
+        ids = new int[capacity+1];
+        popularity = new int[capacity+1];
+        currentSize = 0;
+        positions = new HashMap<>(capacity*2);
+    }
+
+    // Creates an empty sector that records where its products are in a directory shared with other sectors
+    Sector(int capacity, IdDirectory directory, int sectorIndex, int arity) {
+        products = new Product[capacity+1];
+        ids = new int[capacity+1];
+        popularity = new int[capacity+1];
         currentSize = 0;
+        this.directory = directory;
+        this.sectorIndex = sectorIndex;
+        this.arity = arity;
+    }
+
+    // Creates a deep copy of another sector, the copy does not share any Product objects or the directory
+    public Sector(Sector other) {
+        this(other.getCapacity());
+        arity = other.arity;
+        for (int i = 1; i <= other.currentSize; i++) {
+            Product p = other.products[i];
+            add(new Product(p.getId(), p.getName(), p.getStock(), p.getLastPurchaseDay(), p.getDemand()));
+        }
     }
 
     // Add an item to the end of the sector, index 0 is ignored
     public void add(Product prod) {
-        products[currentSize+1] = prod;
+        checkUnique(prod, currentSize+1);
+        store(currentSize+1, prod);
         currentSize++;
+        arrived(currentSize);
     }
     
     // Set some index, valid indices are from 1 to currentSize inclusive
     public void set(int index, Product prod) { 
-        products[index] = prod; 
+        if (prod != null) {
+            checkUnique(prod, index);
+        }
+        if (products[index] != null) {
+            leaving(index);
+        }
+        store(index, prod);
+        if (prod != null) {
+            arrived(index);
+        }
+    }
+
+    // Put a product at some index, along with its id and popularity
+    private void store(int index, Product prod) {
+        products[index] = prod;
+        if (prod != null) {
+            ids[index] = prod.getId();
+            popularity[index] = prod.getPopularity();
+        }
     }
 
     // Delete the last element currently stored
     public void deleteLast() {
+        leaving(currentSize);
         products[currentSize] = null;
         currentSize--;
     }
 
+    // With a directory an id may only be in the warehouse once, anywhere but the index it is about to take
+    private void checkUnique(Product prod, int index) {
+        if (directory != null) {
+            long location = directory.get(prod.getId());
+            if (location != IdDirectory.ABSENT && location != IdDirectory.location(sectorIndex, index)) {
+                throw new IllegalArgumentException("product " + prod.getId() + " is already in the warehouse");
+            }
+        }
+    }
+
+    // A product was put at some index, index it, or count it as another copy if its id is already here
+    private void arrived(int index) {
+        int id = ids[index];
+        if (directory == null && (positions.containsKey(id) || (copies != null && copies.containsKey(id)))) {
+            if (copies == null) {
+                copies = new HashMap<>();
+            }
+            copies.merge(id, 1, Integer::sum);
+            positions.remove(id); // while there are copies, indexOf scans instead
+            return;
+        }
+        track(index);
+    }
+
+    // The product at some index is about to go, forget it, and re-index the last copy of its id if it leaves one
+    private void leaving(int index) {
+        int id = ids[index];
+        Integer extra = copies == null ? null : copies.get(id);
+        if (extra == null) {
+            untrack(index);
+        } else if (extra > 1) {
+            copies.put(id, extra - 1);
+        } else {
+            copies.remove(id);
+            for (int i = 1; i <= currentSize; i++) {
+                if (i != index && ids[i] == id) {
+                    positions.put(id, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Record every product of this sector in another directory, which is used from now on
+    void setDirectory(IdDirectory directory, int sectorIndex) {
+        this.directory = directory;
+        this.sectorIndex = sectorIndex;
+        positions = null;
+        copies = null;
+        for (int i = 1; i <= currentSize; i++) {
+            track(i);
+        }
+    }
+
+    // Get the index of the product with some id, or -1 if it is not in this sector
+    public int indexOf(int id) {
+        if (directory != null) {
+            long location = directory.get(id);
+            return location == IdDirectory.ABSENT || IdDirectory.sectorOf(location) != sectorIndex
+                 ? -1 : IdDirectory.indexOf(location);
+        }
+        if (copies != null && copies.containsKey(id)) {
+            // the first copy, like the scan of the original sector
+            for (int i = 1; i <= currentSize; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+        }
+        Integer index = positions.get(id);
+        return index == null ? -1 : index;
+    }
+
+    // Record that the product at some index is there now
+    private void track(int index) {
+        if (directory != null) {
+            directory.put(ids[index], IdDirectory.location(sectorIndex, index));
+        } else if (copies == null || !copies.containsKey(ids[index])) {
+            positions.put(ids[index], index);
+        }
+    }
+
+    // Forget the product at some index, unless its id was recorded somewhere else since
+    private void untrack(int index) {
+        if (directory != null) {
+            directory.remove(ids[index], IdDirectory.location(sectorIndex, index));
+        } else {
+            positions.remove(ids[index], index);
+        }
+    }
+
     // Get the product at some index
     public Product get(int index) { 
         return products[index]; 
@@ -36,33 +205,70 @@ public class Sector {
         return currentSize; 
     }
 
+    // Get the maximum number of products this sector can hold
+    public int getCapacity() {
+        return products.length - 1;
+    }
+
+    // Get the number of children per heap node
+    public int getArity() {
+        return arity;
+    }
+
     // Swap the items at 2 indices
     public void swap(int index1, int index2) {
         Product temp = products[index1];
         products[index1] = products[index2];
         products[index2] = temp;
+
+        int tempId = ids[index1];
+        ids[index1] = ids[index2];
+        ids[index2] = tempId;
+
+        int tempPopularity = popularity[index1];
+        popularity[index1] = popularity[index2];
+        popularity[index2] = tempPopularity;
+
+        track(index1);
+        track(index2);
     }
 
     // Apply the swim algorithm from class on some index
     public void swim(int index) {
-        while (index > 1 && products[index].getPopularity() < products[index/2].getPopularity()) {
-            swap(index, index/2);
-            index /= 2;
+        if (index <= currentSize) {
+            popularity[index] = products[index].getPopularity(); // it may have changed since it was stored
+        }
+        while (index > 1) {
+            int parent = (index - 2) / arity + 1;
+            if (popularity[index] >= popularity[parent]) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
         }
     }
 
     // Apply the sink algorithm from class on some index
     public void sink(int index) {
-        while (index*2 <= currentSize) {
-            int smallestChild;
+        if (index <= currentSize) {
+            popularity[index] = products[index].getPopularity(); // it may have changed since it was stored, e.g. a purchase
+        }
+        while (true) {
+            long firstChild = (long) arity * (index - 1) + 2; // long, so a wide heap cannot overflow
+            if (firstChild > currentSize) {
+                break;
+            }
+            int lastChild = (int) Math.min(firstChild + arity - 1, currentSize);
 
-            if (index*2 + 1 > currentSize
-            || products[index*2].getPopularity() < products[index*2 + 1].getPopularity()) {
-                smallestChild = index*2;
+            // Ties go to the later child, like the binary heap from class
+            int smallestChild = (int) firstChild;
+            for (int child = smallestChild + 1; child <= lastChild; child++) {
+                if (popularity[child] <= popularity[smallestChild]) {
+                    smallestChild = child;
+                }
             }
-            else smallestChild = index*2 + 1;
 
-            if (products[index].getPopularity() > products[smallestChild].getPopularity()) {
+            if (popularity[index] > popularity[smallestChild]) {
                 swap(index, smallestChild);
                 index = smallestChild;
             }
@@ -70,13 +276,30 @@ public class Sector {
         }
     }
 
+    // Restore the heap order of the whole sector, bottom up
+    void heapify() {
+        for (int i = (currentSize - 2) / arity + 1; i >= 1; i--) {
+            sink(i);
+        }
+    }
+
     public String toString() {
-        String sectorString = "{";
-        sectorString += "null";
+        StringBuilder sectorString = new StringBuilder();
+        try {
+            appendTo(sectorString);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return sectorString.toString();
+    }
+
+    // Append the string representation, index 0 is printed as null
+    public void appendTo(Appendable out) throws IOException {
+        out.append("{null");
         for (int i = 1; i <= currentSize; i++) {
-            sectorString += "; " + products[i].toString();
+            out.append("; ");
+            products[i].appendTo(out);
         }
-        
-        return sectorString + "}";
+        out.append('}');
     }
 }
@@ -0,0 +1,155 @@
+package warehouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Every product of a warehouse ordered by stock, enabled with Warehouse.Builder.stockIndex().
+ * Keys are stock << 32 | id, so products with the same stock are kept apart and ordered by id,
+ * and everything below a stock level is one head of the tree.
+ *
+ * A key must always match the product's current stock, so once a product is indexed its stock is only
+ * changed through restock() and takeStock() here. The methods are synchronized, since restocks of a
+ * ConcurrentWarehouse change stock without holding the sector's write lock.
+ *
+ * Listeners hear about every product whose stock crosses their threshold. They run on the thread that
+ * changed the stock while the index is locked, so they should be quick and must not call the warehouse.
+ */
+public class StockIndex {
+    private TreeMap<Long, Product> byStock = new TreeMap<>();
+    private TreeMap<Integer, List<Listener>> listeners = new TreeMap<>(); // by threshold
+
+    public interface Listener {
+        /**
+         * @param product The product after the change
+         * @param threshold The threshold it crossed
+         * @param below True if its stock fell below the threshold, false if it rose back to it or above
+         */
+        void stockCrossed(ProductView product, int threshold, boolean below);
+    }
+
+    private static long key(int stock, int id) {
+        return (long) stock << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    private static long key(Product product) {
+        return key(product.getStock(), product.getId());
+    }
+
+    public synchronized void add(Product product) {
+        byStock.put(key(product), product);
+    }
+
+    public synchronized void remove(Product product) {
+        unindex(product);
+    }
+
+    /**
+     * Change the stock of a product by some amount
+     * The product is only put back into the index if it was there, a restock may have found it just before it left
+     * @param product The product
+     * @param amount The amount to add, may be negative
+     */
+    public synchronized void restock(Product product, int amount) {
+        int before = product.getStock();
+        boolean indexed = unindex(product);
+        product.updateStock(amount);
+        if (indexed) {
+            byStock.put(key(product), product);
+        }
+        notifyCrossings(product, before);
+    }
+
+    /**
+     * Same as Product.takeStock(), keeping the index in line
+     * @param product The product
+     * @param amount The amount to take
+     * @return true if the stock was decreased
+     */
+    public synchronized boolean takeStock(Product product, int amount) {
+        int before = product.getStock();
+        boolean indexed = unindex(product);
+        boolean taken = product.takeStock(amount);
+        if (indexed) {
+            byStock.put(key(product), product);
+        }
+        if (taken) {
+            notifyCrossings(product, before);
+        }
+        return taken;
+    }
+
+    /**
+     * Get every product with less than some stock, in O(log n + output)
+     * @param threshold The stock level
+     * @return The products below it, lowest stock first, then by id
+     */
+    public synchronized List<ProductView> below(int threshold) {
+        List<ProductView> result = new ArrayList<>();
+        for (Product product : byStock.headMap(key(threshold, 0), false).values()) {
+            result.add(new ProductView(product));
+        }
+        return result;
+    }
+
+    /**
+     * Get the k products with the lowest stock, in O(log n + k)
+     * @param k How many products to return
+     * @return Up to k products, lowest stock first, then by id
+     */
+    public synchronized List<ProductView> lowest(int k) {
+        List<ProductView> result = new ArrayList<>(Math.min(k, 1024));
+        for (Product product : byStock.values()) {
+            if (result.size() == k) {
+                break;
+            }
+            result.add(new ProductView(product));
+        }
+        return result;
+    }
+
+    /**
+     * Call a listener whenever a product's stock crosses some threshold
+     * @param threshold The stock level, below means less than it
+     * @param listener The listener
+     */
+    public synchronized void addListener(int threshold, Listener listener) {
+        listeners.computeIfAbsent(threshold, t -> new ArrayList<>()).add(listener);
+    }
+
+    public synchronized int size() {
+        return byStock.size();
+    }
+
+    // Drop a product if it is the one indexed under its key, a replaced product with the same id and stock is not
+    private boolean unindex(Product product) {
+        long key = key(product);
+        if (byStock.get(key) != product) {
+            return false;
+        }
+        byStock.remove(key);
+        return true;
+    }
+
+    // Tell the listeners of every threshold between the old and new stock, only those are crossed
+    private void notifyCrossings(Product product, int before) {
+        int after = product.getStock();
+        if (listeners.isEmpty() || before == after) {
+            return;
+        }
+
+        // A threshold t is crossed if one side is below t and the other is not: min < t <= max
+        Map<Integer, List<Listener>> crossed = listeners.subMap(Math.min(before, after), false, Math.max(before, after), true);
+        if (crossed.isEmpty()) {
+            return;
+        }
+        ProductView view = new ProductView(product);
+        for (Map.Entry<Integer, List<Listener>> entry : crossed.entrySet()) {
+            for (Listener listener : entry.getValue()) {
+                listener.stockCrossed(view, entry.getKey(), after < before);
+            }
+        }
+    }
+}
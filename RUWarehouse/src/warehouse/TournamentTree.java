@@ -0,0 +1,65 @@
+package warehouse;
+
+import java.util.Arrays;
+
+/*
+ * A tournament over the roots of every sector, so the least popular product of the whole warehouse
+ * is known without looking at every sector. Used by Warehouse.Builder.globalEviction().
+ *
+ * Each leaf holds the popularity of one sector's root, Integer.MAX_VALUE for an empty sector.
+ * Each inner node holds the sector that wins its subtree, the smaller popularity or on a tie the lower sector,
+ * so the root node holds the overall winner. Changing a leaf replays only the matches on its path to the root,
+ * O(log sectors). A loser tree only replays cheaply from the winner's leaf, but any sector's root can change
+ * here, so every node keeps its winner instead.
+ *
+ * The methods are synchronized, since the sectors of a ConcurrentWarehouse share one tree.
+ */
+public class TournamentTree {
+    private int[] keys;    // per leaf, padded with Integer.MAX_VALUE up to a power of two
+    private int[] winners; // winners[1] is the root, the children of node i are 2i and 2i + 1, leaves start at keys.length
+
+    public TournamentTree(int leafCount) {
+        if (leafCount < 1) {
+            throw new IllegalArgumentException("leaf count must be positive: " + leafCount);
+        }
+        int width = Integer.highestOneBit(leafCount * 2 - 1); // next power of two
+        keys = new int[width];
+        Arrays.fill(keys, Integer.MAX_VALUE);
+        winners = new int[width * 2];
+
+        for (int i = 0; i < width; i++) {
+            winners[width + i] = i;
+        }
+        for (int node = width - 1; node >= 1; node--) {
+            winners[node] = match(winners[node * 2], winners[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Change the key of a leaf and replay its matches
+     * @param leaf The sector
+     * @param key The popularity of its root, or Integer.MAX_VALUE if it is empty
+     */
+    public synchronized void update(int leaf, int key) {
+        if (keys[leaf] == key) {
+            return;
+        }
+        keys[leaf] = key;
+        for (int node = (keys.length + leaf) / 2; node >= 1; node /= 2) {
+            winners[node] = match(winners[node * 2], winners[node * 2 + 1]);
+        }
+    }
+
+    // The leaf with the smallest key, the lowest one on a tie
+    public synchronized int winner() {
+        return winners[1];
+    }
+
+    public synchronized int getKey(int leaf) {
+        return keys[leaf];
+    }
+
+    private int match(int a, int b) {
+        return keys[b] < keys[a] ? b : a; // a is always the lower leaf
+    }
+}
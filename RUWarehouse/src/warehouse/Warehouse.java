@@ -1,5 +1,18 @@
 package warehouse;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
 /*
  *
  * This class implements a warehouse on a Hash Table like structure, 
@@ -7,23 +20,225 @@ package warehouse;
  * Due to your limited space, you are unable to simply rehash to get more space. 
  * However, you can use your priority queue structure to delete less popular items 
  * and keep the space constant.
+ *
+ * Every id is in the warehouse at most once. Adding an id that is already there replaces the old product
+ * with the new one, wherever the old one was. The original warehouse kept both copies and let restock and
+ * delete reach either of them, so output differs from it for inputs that add the same id twice.
  * 
  * @author Ishaan Ivaturi
  */ 
-public class Warehouse {
+public class Warehouse implements Printable {
+    private static final int SNAPSHOT_MAGIC = 0x52555753; // "RUWS"
+    private static final int SNAPSHOT_VERSION = 1;
+    // Order of topK() and bottomK(), ties broken by id
+    private static final Comparator<Product> BY_POPULARITY =
+        Comparator.comparingInt(Product::getPopularity).thenComparingInt(Product::getId);
+
     private Sector[] sectors;
+    private int capacity;   // maximum number of products per sector
+    private int sectorMask; // sectors.length - 1 when it is a power of two, otherwise -1
+    private WriteAheadLog wal; // null unless the builder asked for one
+    private WarehouseMetrics metrics; // null unless the builder asked for them
+    private CountMinSketch admission; // null unless the builder asked for an admission filter
+    private FreeSectors free;         // the sectors that are not full
+    private IdDirectory directory;    // where every product is, shared by all sectors
+    private TournamentTree roots;     // the popularity of every sector's root, null unless the builder asked for global eviction
+    private StockIndex stockIndex;    // every product by stock, null unless the builder asked for it
+    private PopularityIndex popularityIndex; // every product by popularity, null unless the builder asked for it
     
     // Initializes every sector to an empty sector
     public Warehouse() {
-        sectors = new Sector[10];
+        this(10, 5);
+    }
+
+    /**
+     * Creates a warehouse with a custom number of sectors, each holding at most capacity products
+     * @param sectorCount The number of sectors, products are routed to sector id % sectorCount
+     * @param capacity The maximum number of products per sector
+     */
+    public Warehouse(int sectorCount, int capacity) {
+        this(sectorCount, capacity, false, 2);
+    }
+
+    /*
+     * threadSafe makes the id directory safe for sectors that are written by different threads at once
+     * arity is the number of children per heap node in every sector, see Sector
+     */
+    Warehouse(int sectorCount, int capacity, boolean threadSafe, int arity) {
+        if (sectorCount < 1) {
+            throw new IllegalArgumentException("sector count must be positive: " + sectorCount);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("sector capacity must be positive: " + capacity);
+        }
+        if (arity < 2) {
+            throw new IllegalArgumentException("heap arity must be at least 2: " + arity);
+        }
+
+        this.capacity = capacity;
+        sectorMask = Integer.bitCount(sectorCount) == 1 ? sectorCount - 1 : -1;
+        sectors = new Sector[sectorCount];
+        directory = new IdDirectory(threadSafe);
+
+        for (int i = 0; i < sectorCount; i++) {
+            sectors[i] = new Sector(capacity, directory, i, arity);
+        }
+        free = new FreeSectors(sectorCount);
+    }
+
+    /*
+     * Builds a Warehouse, e.g. new Warehouse.Builder().sectors(1 << 20).capacity(16).build()
+     */
+    public static class Builder {
+        private int sectorCount = 10;
+        private int capacity = 5;
+        private Path logDirectory;
+        private long maxLogLatencyMillis;
+        private boolean metrics;
+        private boolean admissionFilter;
+        private int arity = 2;
+        private boolean globalEviction;
+        private boolean stockIndex;
+        private boolean popularityIndex;
+
+        public Builder sectors(int sectorCount) {
+            this.sectorCount = sectorCount;
+            return this;
+        }
+
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /*
+         * Log every mutation to a write-ahead log in some directory, see WriteAheadLog
+         * build() first recovers whatever state the directory holds
+         */
+        public Builder writeAheadLog(Path directory, long maxLatencyMillis) {
+            this.logDirectory = directory;
+            this.maxLogLatencyMillis = maxLatencyMillis;
+            return this;
+        }
+
+        // Count operations and time them, see WarehouseMetrics
+        public Builder metrics() {
+            this.metrics = true;
+            return this;
+        }
+
+        /*
+         * Only let a new product evict the least popular product of a full sector if its id was seen
+         * more often recently, see CountMinSketch. Adds, betterAdds, restocks and purchases count as sightings,
+         * also of ids that are not in the warehouse
+         */
+        public Builder admissionFilter() {
+            this.admissionFilter = true;
+            return this;
+        }
+
+        /*
+         * Give every heap node arity children instead of 2, e.g. 4 or 8 for sectors of thousands of products,
+         * where the shallower heap makes purchases and evictions sink through fewer cache lines
+         */
+        public Builder heapArity(int arity) {
+            this.arity = arity;
+            return this;
+        }
+
+        /*
+         * When the home sector of a new product is full, put it in any sector with room, and once every
+         * sector is full evict the least popular product of the whole warehouse instead of the home sector's,
+         * see TournamentTree. Products then live outside their home sector, which the id directory handles
+         */
+        public Builder globalEviction() {
+            this.globalEviction = true;
+            return this;
+        }
+
+        // Keep every product ordered by stock, for productsBelowStock(), lowestStock() and onStockCrossing()
+        public Builder stockIndex() {
+            this.stockIndex = true;
+            return this;
+        }
+
+        // Keep every product ordered by popularity, so topK() does not scan the warehouse
+        public Builder popularityIndex() {
+            this.popularityIndex = true;
+            return this;
+        }
+
+        public Warehouse build() {
+            return configure(new Warehouse(sectorCount, capacity, false, arity));
+        }
+
+        public ConcurrentWarehouse buildConcurrent() {
+            return configure(new ConcurrentWarehouse(sectorCount, capacity, arity));
+        }
+
+        private <W extends Warehouse> W configure(W warehouse) {
+            if (admissionFilter) {
+                // before recovery, which has to make the same admission decisions as the logged run
+                ((Warehouse) warehouse).admission = new CountMinSketch((int) Math.min((long) sectorCount * capacity, Integer.MAX_VALUE));
+            }
+            if (globalEviction) {
+                ((Warehouse) warehouse).roots = new TournamentTree(sectorCount);
+            }
+            if (stockIndex) {
+                ((Warehouse) warehouse).stockIndex = new StockIndex();
+            }
+            if (popularityIndex) {
+                ((Warehouse) warehouse).popularityIndex = new PopularityIndex();
+            }
+            if (logDirectory != null) {
+                try {
+                    WriteAheadLog.recover(logDirectory, warehouse);
+                    ((Warehouse) warehouse).wal = WriteAheadLog.open(logDirectory, maxLogLatencyMillis);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("could not open the write-ahead log in " + logDirectory, e);
+                }
+            }
+            if (metrics) {
+                // after recovery, so replaying the log is not counted
+                ((Warehouse) warehouse).metrics = new WarehouseMetrics(sectorCount);
+            }
+            return warehouse;
+        }
+    }
+
+    /**
+     * Find the home sector of some id
+     * Uses a bit mask instead of modulo when the number of sectors is a power of two
+     * @param id The id of the item
+     * @return The index of the sector the item belongs to
+     */
+    int sectorOf(int id) {
+        if (sectorMask != -1) {
+            return id & sectorMask;
+        }
+        return id % sectors.length;
+    }
 
-        for (int i = 0; i < 10; i++) {
-            sectors[i] = new Sector();
+    // The sector that holds some product, or its home sector if it is not in the warehouse
+    int holderOf(int id) {
+        long location = directory.get(id);
+        return location == IdDirectory.ABSENT ? sectorOf(id) : IdDirectory.sectorOf(location);
+    }
+
+    // Move to a thread safe id directory, before different threads start writing different sectors
+    void useThreadSafeDirectory() {
+        if (directory.isThreadSafe()) {
+            return;
+        }
+        directory = new IdDirectory(true);
+        for (int i = 0; i < sectors.length; i++) {
+            sectors[i].setDirectory(directory, i);
         }
     }
     
     /**
      * Provided method, code the parts to add their behavior
+     * A product with the same id that is already in the warehouse is replaced
      * @param id The id of the item to add
      * @param name The name of the item to add
      * @param stock The stock of the item to add
@@ -31,30 +246,67 @@ public class Warehouse {
      * @param demand Initial demand of the item to add
      */
     public void addProduct(int id, String name, int stock, int day, int demand) {
-        evictIfNeeded(id);
-        addToEnd(id, name, stock, day, demand);
+        long start = startTimer();
+        long ticket = log(logging() ? Command.add(day, id, name, stock, demand) : null);
+        insert(id, name, stock, day, demand);
+        awaitLog(ticket);
+        stopTimer(Command.ADD, start);
+    }
+
+    /*
+     * The body of addProduct, kept separate so betterAddProduct does not go through
+     * an overridden addProduct (ConcurrentWarehouse already holds the locks it needs)
+     */
+    void insert(int id, String name, int stock, int day, int demand) {
+        recordAccess(id);
+
+        long existing = directory.get(id);
+        if (existing != IdDirectory.ABSENT) {
+            // Ask the admission filter while the old product is still there, so a rejected replacement
+            // leaves it in place instead of dropping it. Its own sector gets room from the removal either way
+            int target = targetSector(id);
+            if (IdDirectory.sectorOf(existing) != target && admissionRejects(id, target)) {
+                return;
+            }
+            removeAt(IdDirectory.sectorOf(existing), IdDirectory.indexOf(existing));
+        }
+
+        int sector_id = targetSector(id);
+        if (!evictIfNeeded(id, sector_id)) {
+            return; // the admission filter kept the products that are there
+        }
+        addToEnd(sector_id, id, name, stock, day, demand);
         fixHeap(id);
+        updateRoot(sector_id);
+    }
+
+    // The sector a new product goes to: its home sector, or with global eviction and a full home sector
+    // any sector with room, otherwise the sector with the least popular product of all
+    private int targetSector(int id) {
+        int sector_id = sectorOf(id);
+        if (roots != null && sectors[sector_id].getSize() == capacity) {
+            int empty_sector_ind = free.nextFree(sector_id);
+            sector_id = empty_sector_ind != -1 ? empty_sector_ind : roots.winner();
+        }
+        return sector_id;
     }
 
     /**
      * Add a new product to the end of the correct sector
      * Requires proper use of the .add() method in the Sector class
+     * @param sector_id The sector to add it to, its home sector unless global eviction or betterAddProduct moved it
      * @param id The id of the item to add
      * @param name The name of the item to add
      * @param stock The stock of the item to add
      * @param day The day of the item to add
      * @param demand Initial demand of the item to add
      */
-    private void addToEnd(int id, String name, int stock, int day, int demand) {
+    private void addToEnd(int sector_id, int id, String name, int stock, int day, int demand) {
         Product add_prod = new Product(id, name, stock, day, demand); 
 
-        int sector_id = id % 10;  
-
-        for (int ind = 0; ind < sectors.length; ind++){
-            if (ind == sector_id){
-                sectors[ind].add(add_prod);
-            }
-        }
+        sectors[sector_id].add(add_prod);
+        indexProduct(add_prod);
+        updateFree(sector_id);
 
     }
 
@@ -66,7 +318,8 @@ public class Warehouse {
 
     private void fixHeap(int id) {
         
-        int sector_id = id % 10;
+        // The sector the item was actually added to, betterAddProduct may have put it outside its home sector
+        int sector_id = holderOf(id);
         int size = sectors[sector_id].getSize();
         
         sectors[sector_id].swim(size); 
@@ -74,146 +327,209 @@ public class Warehouse {
     }
 
     /**
-     * Delete the least popular item in the correct sector, only if its size is 5 while maintaining heap
+     * Delete the least popular item in the correct sector, only if it is full while maintaining heap
      * Requires proper use of the .swap(), .deleteLast(), and .sink() methods in the Sector class
      * @param id The id of the item which is about to be added
+     * @param sector_id The sector it is about to be added to
+     * @return False if the sector is full and the admission filter would rather keep its least popular item
      */
-    private void evictIfNeeded(int id) {
+    private boolean evictIfNeeded(int id, int sector_id) {
 
-        int sector_id = id % 10;
         int sector_size = sectors[sector_id].getSize(); 
         
-        if (sector_size == 5){
+        if (sector_size == capacity){
+            if (admissionRejects(id, sector_id)) {
+                return false;
+            }
+            if (metrics != null) {
+                metrics.recordEviction(sector_id);
+            }
+
             // Swap the first (min) and last term, and then delete the last term
+            unindexProduct(sectors[sector_id].get(1));
             sectors[sector_id].swap(1, sector_size);
             sectors[sector_id].deleteLast();
+            updateFree(sector_id);
             
             // Sink the first value (not min) to where it's supposed to be in the heap
             sectors[sector_id].sink(1); 
         }
+        return true;
+    }
+
+    // True if a sector is full and the admission filter would rather keep its least popular item than take id
+    private boolean admissionRejects(int id, int sector_id) {
+        if (admission == null || sectors[sector_id].getSize() < capacity
+            || admission.admits(id, sectors[sector_id].get(1).getId())) {
+            return false;
+        }
+        if (metrics != null) {
+            metrics.recordRejectedAdmission();
+        }
+        return true;
     }
 
     /**
      * Update the stock of some item by some amount
-     * Requires proper use of the .getSize() and .get() methods in the Sector class
      * Requires proper use of the .updateStock() method in the Product class
      * @param id The id of the item to restock
      * @param amount The amount by which to update the stock
      */
     public void restockProduct(int id, int amount) {
-        int sector_id = id % 10;
+        long start = startTimer();
+        long ticket = log(logging() ? Command.restock(id, amount) : null);
+        restock(id, find(id), amount);
+        awaitLog(ticket);
+        stopTimer(Command.RESTOCK, start);
+    }
 
-        for (int i = 1; i <= sectors[sector_id].getSize(); i++){
-            if (sectors[sector_id].get(i).getId() == id){
-                // if you found the id of the element, restock it 
-                sectors[sector_id].get(i).updateStock(amount);
+    /*
+     * Apply a restock to a product that was already found, null if the id was not found
+     * Only touches the stock, which is updated atomically, so callers do not need to hold a sector lock
+     */
+    void restock(int id, Product product, int amount) {
+        recordAccess(id);
+        if (product == null) {
+            if (metrics != null) {
+                metrics.recordMissing(Command.RESTOCK);
             }
+            return;
+        }
+        if (stockIndex != null) {
+            stockIndex.restock(product, amount); // moves it in the index as well
+        } else {
+            product.updateStock(amount);
         }
-
     }
     
     /**
      * Delete some arbitrary product while maintaining the heap structure in O(logn)
-     * Requires proper use of the .getSize(), .get(), .swap(), .deleteLast(), .sink() and/or .swim() methods
-     * Requires proper use of the .getId() method from the Product class
+     * Requires proper use of the .indexOf(), .getSize(), .swap(), .deleteLast(), .sink() and/or .swim() methods
      * @param id The id of the product to delete
      */
     public void deleteProduct(int id) {
-        // NEED TO TEST THIS WITH OTHER INPUTS
-
-        int sector_id = id % 10;
-
-        // System.out.println("call");
-        // System.out.println("id: " + id); 
-        // System.out.println("sector id: " + sector_id);
-
-        for (int i = 1; i <= sectors[sector_id].getSize(); i++){
-            // System.out.println(sectors[sector_id].get(i).getId()); 
-            if (sectors[sector_id].get(i).getId() == id){
-                // Swap the item with the provided ID and last item and then delete the last item from the list
-                // System.out.println("i: " + sectors[sector_id].get(i).getName());
-                // System.out.println("Last: " + sectors[sector_id].get(sectors[sector_id].getSize()).getName());
-                sectors[sector_id].swap(i, sectors[sector_id].getSize());
-
-                boolean deleting_last = false;
-                
-                if (sectors[sector_id].getSize() == i){
-                    deleting_last = true; 
-                }
+        long start = startTimer();
+        long ticket = log(logging() ? Command.delete(id) : null);
+        remove(id);
+        awaitLog(ticket);
+        stopTimer(Command.DELETE, start);
+    }
 
-                sectors[sector_id].deleteLast();
-
-                // Check the size of the PQ
-                int size = sectors[sector_id].getSize(); 
-
-
-                // if (deleting_last == true){
-                //     if (size > 0){
-                //         System.out.println(size); 
-                //         System.out.println("no sink i: " + sectors[sector_id].get(i)); 
-                //         System.out.println("yes sink size: " + sectors[sector_id].get(sectors[sector_id].getSize())); 
-                //         sectors[sector_id].sink(sectors[sector_id].getSize());
-                //     } 
-                // } else {
-                //     if (size > 0){
-                //         System.out.println("yes sink i: " + sectors[sector_id].get(i)); 
-                //         sectors[sector_id].sink(i);
-                //     }
-                // }
-
-                if (deleting_last == false){
-                    if (size > 0){
-                        sectors[sector_id].sink(i);
-                    }
-                }   
+    // The body of deleteProduct
+    void remove(int id) {
+        long location = directory.get(id);
 
+        if (location == IdDirectory.ABSENT){
+            if (metrics != null) {
+                metrics.recordMissing(Command.DELETE);
             }
+            return; 
+        }
+
+        removeAt(IdDirectory.sectorOf(location), IdDirectory.indexOf(location));
+    }
+
+    // Remove the product an add is about to replace, if there is one, see the class comment
+    private void removeExisting(int id) {
+        long location = directory.get(id);
+        if (location != IdDirectory.ABSENT) {
+            removeAt(IdDirectory.sectorOf(location), IdDirectory.indexOf(location));
+        }
+    }
+
+    // Delete the product at index i of some sector while maintaining the heap
+    private void removeAt(int sector_id, int i) {
+        unindexProduct(sectors[sector_id].get(i));
+
+        // Swap the item with the provided ID and last item and then delete the last item from the list
+        sectors[sector_id].swap(i, sectors[sector_id].getSize());
 
+        boolean deleting_last = false;
+        
+        if (sectors[sector_id].getSize() == i){
+            deleting_last = true; 
         }
 
+        sectors[sector_id].deleteLast();
+        updateFree(sector_id);
+
+        // Check the size of the PQ
+        int size = sectors[sector_id].getSize(); 
+
+        if (deleting_last == false){
+            if (size > 0){
+                sectors[sector_id].sink(i);
+                // The last item came from another branch and may be less popular than the parent of i
+                sectors[sector_id].swim(i);
+            }
+        }   
+        updateRoot(sector_id);
 
     }
     
     /**
      * Simulate a purchase order for some product
-     * Requires proper use of the getSize(), sink(), get() methods in the Sector class
-     * Requires proper use of the getId(), getStock(), setLastPurchaseDay(), updateStock(), updateDemand() methods
+     * Requires proper use of the indexOf(), sink(), get() methods in the Sector class
+     * Requires proper use of the takeStock(), setLastPurchaseDay(), updateDemand() methods
      * @param id The id of the purchased product
      * @param day The current day
      * @param amount The amount purchased
      */
     public void purchaseProduct(int id, int day, int amount) {
+        long start = startTimer();
+        long ticket = log(logging() ? Command.purchase(day, id, amount) : null);
+        purchase(id, day, amount);
+        awaitLog(ticket);
+        stopTimer(Command.PURCHASE, start);
+    }
 
-        // What to do about null pointer exception
-        int sector_id = id % 10; 
+    // The body of purchaseProduct
+    void purchase(int id, int day, int amount) {
+        recordAccess(id);
+        long location = directory.get(id);
 
-        for (int i = 1; i <= sectors[sector_id].getSize(); i++){
-            if (sectors[sector_id].get(i).getId() == id){
-                // Only update info if the amount of stock is greater than the purchase amount
-                if (amount < sectors[sector_id].get(i).getStock()){
-                    // Update the day purchased
-                    sectors[sector_id].get(i).setLastPurchaseDay(day);
+        if (location == IdDirectory.ABSENT){
+            if (metrics != null) {
+                metrics.recordMissing(Command.PURCHASE);
+            }
+            return; 
+        }
 
-                    // Decrease stock by amount
-                    int current_stock = sectors[sector_id].get(i).getStock(); 
-                    sectors[sector_id].get(i).setStock(current_stock - amount);
-    
-                    // Increase demand by the amount purchased 
-                    sectors[sector_id].get(i).updateDemand(amount);
-    
-                    // Run a for-loop through the specific sector and sink whatever needs to be sinked
-                    
-                    sectors[sector_id].sink(i);
+        int sector_id = IdDirectory.sectorOf(location);
+        int i = IdDirectory.indexOf(location);
 
-                }
+        Product product = sectors[sector_id].get(i); 
+
+        // Only update info if the amount of stock is greater than the purchase amount
+        // takeStock checks and decreases the stock in one atomic step
+        if (stockIndex != null ? stockIndex.takeStock(product, amount) : product.takeStock(amount)){
+            // Out of the popularity index while its key changes
+            if (popularityIndex != null) {
+                popularityIndex.remove(product);
             }
-        }
 
+            // Update the day purchased
+            product.setLastPurchaseDay(day);
+
+            // Increase demand by the amount purchased 
+            product.updateDemand(amount);
+
+            if (popularityIndex != null) {
+                popularityIndex.add(product);
+            }
+
+            // Popularity only grows, so the product can only move down the heap
+            sectors[sector_id].sink(i);
+            updateRoot(sector_id);
+        } else if (metrics != null) {
+            metrics.recordRejectedPurchase();
+        }
 
     }
     
     /**
      * Construct a better scheme to add a product, where empty spaces are always filled
+     * A product with the same id that is already in the warehouse is replaced
      * @param id The id of the item to add
      * @param name The name of the item to add
      * @param stock The stock of the item to add
@@ -221,71 +537,516 @@ public class Warehouse {
      * @param demand Initial demand of the item to add
      */
     public void betterAddProduct(int id, String name, int stock, int day, int demand) {
-        Product add_prod = new Product(id, name, stock, day, demand); 
+        long start = startTimer();
+        long ticket = log(logging() ? Command.betterAdd(day, id, name, stock, demand) : null);
+        betterInsert(id, name, stock, day, demand);
+        awaitLog(ticket);
+        stopTimer(Command.BETTER_ADD, start);
+    }
 
-        int sector_id = id % 10;  
-
-        for (int ind = 0; ind < sectors.length; ind++){
-            if (ind == sector_id){
-
-                if (sectors[sector_id].getSize() < 5){
-                    // Sector isn't full, add into it normally & fix heap (can call addProduct)
-                    addProduct(id, name, stock, day, demand);
-                } else {
-                    // Go through the entire sector, max sector.length times (because then you'll be back at the original sector)
-                    // If you find a sector that is empty (boolean), store that index, break out of the loop, add the product and fix the heap 
-                    // If you don't find an empty sector (boolean = false), call evict, add to end, and fix (addProduct method)
-                    // Loop starts at sector_id and runs a max sector.length times
-                        // If index hits sector.length set it to 0
-                    boolean empty_sector = false;
-                    int empty_sector_ind = 0;  
-
-                    int count = 0; 
-                    int start_ind = sector_id; 
-
-                    while (count < sectors.length){
-                        if (sectors[start_ind].getSize() < 5){
-                            empty_sector = true; 
-                            empty_sector_ind = start_ind; 
-                            break; 
-                        }
+    // The body of betterAddProduct
+    void betterInsert(int id, String name, int stock, int day, int demand) {
+        removeExisting(id); // may leave room in the sector that held it
+        int sector_id = sectorOf(id);  
 
-                        start_ind++; 
+        // The first sector with room at or after the home sector, wrapping around, found with word sized bit scans
+        // -1 if every sector is full
+        int empty_sector_ind = free.nextFree(sector_id);
 
-                        if (start_ind > (sectors.length - 1)){
-                            start_ind = 0; 
-                        }
-                        
-                        count++; 
-                    }
+        if (metrics != null) {
+            // how many sectors a one by one probe would have looked at
+            int looked_at = empty_sector_ind == -1 ? sectors.length
+                          : (empty_sector_ind - sector_id + sectors.length) % sectors.length + 1;
+            metrics.recordProbe(looked_at);
+        }
 
-                    if (empty_sector == true){
-                        sectors[empty_sector_ind].add(add_prod);
-                        fixHeap(id);
-                        
-                    } else {
-                        addProduct(id, name, stock, day, demand);
-                    }
+        if (empty_sector_ind == sector_id || empty_sector_ind == -1){
+            // Home sector isn't full, or no sector has room: add normally & fix heap (same as addProduct)
+            insert(id, name, stock, day, demand);
+        } else {
+            recordAccess(id);
+            Product add_prod = new Product(id, name, stock, day, demand);
+            sectors[empty_sector_ind].add(add_prod);
+            indexProduct(add_prod);
+            updateFree(empty_sector_ind);
+            fixHeap(id);
+            updateRoot(empty_sector_ind);
+        }
+    }
+
+    // The metrics of this warehouse, or null if they are not enabled
+    public WarehouseMetrics getMetrics() {
+        return metrics;
+    }
 
+    // Keep the free sector bits in line with the size of a sector after it changed
+    private void updateFree(int sector) {
+        if (sectors[sector].getSize() < capacity) {
+            free.markFree(sector);
+        } else {
+            free.markFull(sector);
+        }
+    }
 
-                }
+    // Tell the global eviction tree about a sector whose root may have changed, if there is a tree
+    private void updateRoot(int sector) {
+        if (roots != null) {
+            Sector changed = sectors[sector];
+            roots.update(sector, changed.getSize() == 0 ? Integer.MAX_VALUE : changed.get(1).getPopularity());
+        }
+    }
+
+    // Keep the stock and popularity indices, if there are any, in line with a product that entered or is leaving
+    private void indexProduct(Product product) {
+        if (stockIndex != null) {
+            stockIndex.add(product);
+        }
+        if (popularityIndex != null) {
+            popularityIndex.add(product);
+        }
+    }
+
+    private void unindexProduct(Product product) {
+        if (stockIndex != null) {
+            stockIndex.remove(product);
+        }
+        if (popularityIndex != null) {
+            popularityIndex.remove(product);
+        }
+    }
+
+    boolean hasGlobalEviction() {
+        return roots != null;
+    }
+
+    boolean hasAdmissionFilter() {
+        return admission != null;
+    }
 
-                
+    // Count a sighting of some id for the admission filter, if there is one
+    void recordAccess(int id) {
+        if (admission != null) {
+            admission.increment(id);
+        }
+    }
+
+    // Read the clock for stopTimer(), only if metrics are enabled
+    long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    // Record the latency of an operation that began at startTimer()
+    void stopTimer(int operation, long start) {
+        if (metrics != null) {
+            metrics.recordLatency(operation, System.nanoTime() - start);
+        }
+    }
+
+    // True if mutations go to a write-ahead log
+    boolean logging() {
+        return wal != null;
+    }
+
+    /*
+     * Append a mutation to the write-ahead log before applying it
+     * Returns the ticket to pass to awaitLog() once it is applied, or 0 when there is no log
+     */
+    long log(Command command) {
+        return wal == null ? 0 : wal.append(command);
+    }
+
+    // Wait until a logged mutation is durable, the group commit makes many callers share one fsync
+    void awaitLog(long ticket) {
+        if (ticket != 0) {
+            wal.await(ticket);
+        }
+    }
+
+    /**
+     * Snapshot the warehouse into the write-ahead log directory and drop the log written before it,
+     * so a restart only replays what happened since
+     * @throws IOException If the snapshot cannot be written
+     * @throws IllegalStateException If there is no write-ahead log
+     */
+    public void checkpoint() throws IOException {
+        if (wal == null) {
+            throw new IllegalStateException("this warehouse has no write-ahead log");
+        }
+        wal.checkpoint(this);
+    }
+
+    /**
+     * Make every logged mutation durable and stop logging
+     * @throws IOException If the log cannot be written
+     */
+    public void closeLog() throws IOException {
+        if (wal != null) {
+            wal.close();
+            wal = null;
+        }
+    }
+
+    /**
+     * Find the product with some id
+     * @param id The id of the product
+     * @return The product, or null if it is not in the warehouse
+     */
+    Product find(int id) {
+        long location = directory.get(id);
+        return location == IdDirectory.ABSENT ? null
+             : sectors[IdDirectory.sectorOf(location)].get(IdDirectory.indexOf(location));
+    }
+
+    // Find the product with some id if it is in a given sector, otherwise null
+    Product findIn(int sector_id, int id) {
+        Sector sector = sectors[sector_id];
+        int i = sector.indexOf(id);
+        return i == -1 ? null : sector.get(i);
+    }
+
+    /**
+     * Get the stock of some product
+     * @param id The id of the product
+     * @return The current stock, or -1 if the product is not in the warehouse
+     */
+    public int getStock(int id) {
+        Product product = find(id);
+        return product == null ? -1 : product.getStock();
+    }
+
+    /**
+     * Get the popularity of some product
+     * @param id The id of the product
+     * @return The current popularity, or -1 if the product is not in the warehouse
+     */
+    public int getPopularity(int id) {
+        Product product = find(id);
+        return product == null ? -1 : product.getPopularity();
+    }
+
+    /**
+     * Get an immutable copy of some product
+     * @param id The id of the product
+     * @return A copy of the product, or null if it is not in the warehouse
+     */
+    public ProductView getProduct(int id) {
+        Product product = find(id);
+        return product == null ? null : new ProductView(product);
+    }
+
+    /**
+     * Get the k least popular products of the whole warehouse
+     * Starts from every sector's root and only ever looks at the children of products it already took,
+     * so it reads O(sectors + k * arity) products instead of sorting all of them
+     * A child as popular as its parent can only come after it, so equal popularities are not always in id order
+     * @param k How many products to return
+     * @return Up to k products, least popular first
+     */
+    public List<ProductView> bottomK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        List<ProductView> result = new ArrayList<>(Math.min(k, 1024));
+
+        // Heap nodes whose parents were already taken, as IdDirectory locations
+        PriorityQueue<Long> frontier = new PriorityQueue<>(Math.max(sectors.length, 1),
+            (a, b) -> BY_POPULARITY.compare(productAt(a), productAt(b)));
+        for (int i = 0; i < sectors.length && k > 0; i++) {
+            if (sectors[i].getSize() > 0) {
+                frontier.add(IdDirectory.location(i, 1));
+            }
+        }
+
+        while (result.size() < k && !frontier.isEmpty()) {
+            long location = frontier.poll();
+            result.add(new ProductView(productAt(location)));
+
+            Sector sector = sectors[IdDirectory.sectorOf(location)];
+            int index = IdDirectory.indexOf(location);
+            long firstChild = (long) sector.getArity() * (index - 1) + 2;
+            long lastChild = Math.min(firstChild + sector.getArity() - 1, sector.getSize());
+            for (long child = firstChild; child <= lastChild; child++) {
+                frontier.add(IdDirectory.location(IdDirectory.sectorOf(location), (int) child));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the k most popular products of the whole warehouse
+     * With a popularity index (see Builder.popularityIndex()) these are its last k entries, O(log n + k).
+     * Without one every product is offered once to a bounded heap of the best k so far, O(n log k),
+     * since the heaps keep their most popular products in no particular order near the leaves
+     * @param k How many products to return
+     * @return Up to k products, most popular first, equal popularities by id from highest
+     */
+    public List<ProductView> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        if (popularityIndex != null) {
+            return popularityIndex.highest(k);
+        }
+        List<ProductView> result = new ArrayList<>(Math.min(k, 1024));
+        if (k == 0) {
+            return result;
+        }
+
+        PriorityQueue<Product> best = new PriorityQueue<>(Math.min(k, 1024), BY_POPULARITY); // the weakest of them on top
+        for (Sector sector : sectors) {
+            for (int i = 1; i <= sector.getSize(); i++) {
+                Product product = sector.get(i);
+                if (best.size() < k) {
+                    best.add(product);
+                } else if (BY_POPULARITY.compare(product, best.peek()) > 0) {
+                    best.poll();
+                    best.add(product);
+                }
             }
         }
+
+        while (!best.isEmpty()) {
+            result.add(new ProductView(best.poll()));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Get every product with less than some stock, without scanning the warehouse
+     * @param threshold The stock level, e.g. a reorder point
+     * @return The products below it, lowest stock first, then by id
+     * @throws IllegalStateException If there is no stock index, see Builder.stockIndex()
+     */
+    public List<ProductView> productsBelowStock(int threshold) {
+        return requireStockIndex().below(threshold);
+    }
+
+    /**
+     * Get the k products with the lowest stock, without scanning the warehouse
+     * @param k How many products to return
+     * @return Up to k products, lowest stock first, then by id
+     * @throws IllegalStateException If there is no stock index, see Builder.stockIndex()
+     */
+    public List<ProductView> lowestStock(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        return requireStockIndex().lowest(k);
+    }
+
+    /**
+     * Call a listener whenever a restock or purchase moves a product's stock across some threshold,
+     * in either direction. Adds, deletes and evictions do not count as crossings
+     * @param threshold The stock level, below means less than it
+     * @param listener Runs on the thread that changed the stock, see StockIndex
+     * @throws IllegalStateException If there is no stock index, see Builder.stockIndex()
+     */
+    public void onStockCrossing(int threshold, StockIndex.Listener listener) {
+        requireStockIndex().addListener(threshold, listener);
+    }
+
+    private StockIndex requireStockIndex() {
+        if (stockIndex == null) {
+            throw new IllegalStateException("this warehouse has no stock index");
+        }
+        return stockIndex;
+    }
+
+    // The product at an IdDirectory location
+    private Product productAt(long location) {
+        return sectors[IdDirectory.sectorOf(location)].get(IdDirectory.indexOf(location));
     }
 
     /*
      * Returns the string representation of the warehouse
      */
     public String toString() {
-        String warehouseString = "[\n";
+        StringBuilder warehouseString = new StringBuilder();
+        try {
+            appendTo(warehouseString);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return warehouseString.toString();
+    }
 
-        for (int i = 0; i < 10; i++) {
-            warehouseString += "\t" + sectors[i].toString() + "\n";
+    /**
+     * Stream the string representation of the warehouse, one sector per line
+     * @param out Where to append the text
+     * @throws IOException If out throws
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append("[\n");
+
+        for (int i = 0; i < sectors.length; i++) {
+            out.append('\t');
+            sectors[i].appendTo(out);
+            out.append('\n');
+        }
+
+        out.append(']');
+    }
+
+    /**
+     * Write every sector's heap array to a binary file that restore() can load
+     * Layout, all ints big endian: "RUWS", version, sector count, capacity, heap arity,
+     * then per sector its size followed by (id, stock, lastPurchaseDay, demand, popularity, name length, UTF-8 name)
+     * for indices 1 to size, in heap order, then the admission filter: counter count, additions and the counters as longs
+     * @param path The file to write, replaced if it exists
+     * @throws IOException If the file cannot be written
+     */
+    public void snapshot(Path path) throws IOException {
+        writeSnapshot(path);
+    }
+
+    // The body of snapshot, used by the write-ahead log while the warehouse is already held still
+    void writeSnapshot(Path path) throws IOException {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(sectors.length).putInt(capacity)
+                  .putInt(sectors[0].getArity());
+
+            for (Sector sector : sectors) {
+                buffer.putInt(sector.getSize());
+
+                for (int i = 1; i <= sector.getSize(); i++) {
+                    Product product = sector.get(i);
+                    byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+
+                    if (buffer.remaining() < 24 + name.length) {
+                        drain(out, buffer);
+                        if (buffer.remaining() < 24 + name.length) {
+                            buffer = ByteBuffer.allocate(24 + name.length);
+                        }
+                    }
+                    buffer.putInt(product.getId()).putInt(product.getStock()).putInt(product.getLastPurchaseDay())
+                          .putInt(product.getDemand()).putInt(product.getPopularity()).putInt(name.length).put(name);
+                }
+
+                if (buffer.remaining() < 4) {
+                    drain(out, buffer);
+                }
+            }
+
+            // the admission filter, so a restored warehouse admits the same products, 0 longs if there is none
+            long[] counters = admission == null ? new long[0] : admission.getTable();
+            if (buffer.remaining() < 8) {
+                drain(out, buffer);
+            }
+            buffer.putInt(counters.length).putInt(admission == null ? 0 : admission.getAdditions());
+            for (long counter : counters) {
+                if (buffer.remaining() < 8) {
+                    drain(out, buffer);
+                }
+                buffer.putLong(counter);
+            }
+
+            drain(out, buffer);
+            out.force(true);
+        }
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Load a warehouse written by snapshot()
+     * The file is memory-mapped and products are put straight into their heap positions, no swim or sink runs
+     * @param path The snapshot file
+     * @return A warehouse with the same sectors, capacity and products
+     * @throws IOException If the file cannot be read or is not a snapshot
+     */
+    public static Warehouse restore(Path path) throws IOException {
+        try (MappedInput in = new MappedInput(path)) {
+            int[] layout = readSnapshotHeader(in);
+            Warehouse warehouse = new Warehouse(layout[0], layout[1], false, layout[2]);
+            warehouse.load(in, layout[2]);
+            return warehouse;
+        }
+    }
+
+    // Check the header of a snapshot and return its {sector count, capacity, heap arity}
+    static int[] readSnapshotHeader(MappedInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not a warehouse snapshot");
+        }
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        int sectorCount = in.readInt();
+        int capacity = in.readInt();
+        int arity = in.readInt();
+        if (arity < 2) {
+            throw new IOException("corrupt snapshot, heap arity " + arity);
+        }
+        return new int[] { sectorCount, capacity, arity };
+    }
+
+    /*
+     * Fill this warehouse, which must be empty and have the snapshot's layout, from the body of a snapshot
+     * If the snapshot's heaps have a different arity, each sector is heapified again after it is read
+     * The admission filter is restored if this warehouse has one of the same size, otherwise it is skipped
+     */
+    void load(MappedInput in, int arity) throws IOException {
+        byte[] name = new byte[64];
+
+        for (int sector_id = 0; sector_id < sectors.length; sector_id++) {
+            Sector sector = sectors[sector_id];
+            int size = in.readInt();
+            if (size < 0 || size > capacity) {
+                throw new IOException("corrupt snapshot, sector size " + size);
+            }
+
+            for (int i = 1; i <= size; i++) {
+                int id = in.readInt();
+                int stock = in.readInt();
+                int lastPurchaseDay = in.readInt();
+                int demand = in.readInt();
+                int popularity = in.readInt();
+                int length = in.readInt();
+
+                if (popularity != lastPurchaseDay + demand || length < 0) {
+                    throw new IOException("corrupt snapshot, product " + id);
+                }
+                if (directory.get(id) != IdDirectory.ABSENT) {
+                    throw new IOException("corrupt snapshot, product " + id + " is in it twice");
+                }
+                if (length > name.length) {
+                    name = new byte[Math.max(length, name.length * 2)];
+                }
+                in.readFully(name, length);
+
+                Product product = new Product(id, new String(name, 0, length, StandardCharsets.UTF_8), stock, lastPurchaseDay, demand);
+                sector.add(product);
+                indexProduct(product);
+            }
+            if (arity != sector.getArity()) {
+                sector.heapify();
+            }
+            updateFree(sector_id);
+            updateRoot(sector_id);
+        }
+
+        int length = in.readInt();
+        int additions = in.readInt();
+        if (length < 0) {
+            throw new IOException("corrupt snapshot, admission filter of " + length + " longs");
+        }
+        long[] counters = new long[length];
+        for (int i = 0; i < length; i++) {
+            counters[i] = in.readLong();
+        }
+        if (admission != null && admission.getTableLength() == length) {
+            admission.setState(counters, additions);
         }
-        
-        return warehouseString + "]";
     }
 
     /*
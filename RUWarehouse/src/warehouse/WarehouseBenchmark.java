@@ -0,0 +1,295 @@
+package warehouse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Use this class to time every warehouse operation.
+ *
+ *   java warehouse.WarehouseBenchmark [sectors] [fills] [distributions] [capacity] [commands] [arities]
+ *
+ * sectors, fills and distributions are comma separated lists, every combination is measured:
+ *   sectors        number of sectors, default 10,1024,16384
+ *   fills          how full each sector is before an operation runs, from 0 to 1, default 0.5,1
+ *   distributions  how ids are picked: uniform, zipf (exponent 0.99) or sequential, default uniform,zipf
+ *   capacity       products per sector, default 5
+ *   commands       a command file to replay end to end on a default Warehouse, default everything.in
+ *   arities        comma separated heap arities, see Warehouse.Builder.heapArity(), default 2
+ *
+ * To see what a wider heap buys, use big sectors and a purchase heavy stream, e.g.
+ *   java warehouse.WarehouseBenchmark 64 1 uniform,zipf 4096 none 2,4,8
+ *
+ * Each benchmark runs a few warm-up rounds so the JIT compiles it, then reports the mean and best
+ * time per operation over the measured rounds. Every round starts from a freshly filled warehouse,
+ * and building it is not timed. Rounds are sized to take about ROUND_MILLIS.
+ */
+public class WarehouseBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final long ROUND_MILLIS = 50;
+    private static final int MAX_OPS = 1 << 18;
+    private static final int STOCK = 1_000_000; // enough that purchases always go through
+    private static final String[] NAMES = { "widget", "gadget", "gizmo", "doohickey", "thingamajig" };
+
+    // results are added here so the JIT cannot drop the work that produced them
+    static long blackhole;
+
+    // Everything a round works on, built before the clock starts
+    private static class Fixture {
+        Warehouse warehouse;
+        int[] existing; // ids of products in the warehouse, picked with the distribution
+        int[] fresh;    // ids not in the warehouse yet, picked with the distribution
+        int day;        // newer than every day already in the warehouse
+    }
+
+    private interface Operation {
+        void run(Fixture fixture, int ops);
+    }
+
+    private static class Benchmark {
+        String name;
+        boolean usesIds;
+        Operation operation;
+
+        Benchmark(String name, boolean usesIds, Operation operation) {
+            this.name = name;
+            this.usesIds = usesIds;
+            this.operation = operation;
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] sectorCounts = parseInts(args.length > 0 ? args[0] : "10,1024,16384");
+        String[] fillList = (args.length > 1 ? args[1] : "0.5,1").split(",");
+        String[] distributions = (args.length > 2 ? args[2] : "uniform,zipf").split(",");
+        int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        String commands = args.length > 4 ? args[4] : "everything.in";
+        int[] arities = parseInts(args.length > 5 ? args[5] : "2");
+
+        double[] fills = new double[fillList.length];
+        for (int i = 0; i < fills.length; i++) {
+            fills[i] = Double.parseDouble(fillList[i]);
+            if (fills[i] < 0 || fills[i] > 1) {
+                throw new IllegalArgumentException("fill must be between 0 and 1: " + fills[i]);
+            }
+        }
+
+        for (int sectorCount : sectorCounts) {
+            for (double fill : fills) {
+                for (int d = 0; d < distributions.length; d++) {
+                    for (Benchmark benchmark : benchmarks()) {
+                        for (int arity : arities) {
+                            if (benchmark.usesIds || d == 0) {
+                                String distribution = distributions[d];
+                                String params = "sectors=" + sectorCount + " capacity=" + capacity + " fill=" + fill
+                                              + " arity=" + arity + (benchmark.usesIds ? " ids=" + distribution : "");
+                                measure(benchmark.name, params,
+                                        ops -> fixture(sectorCount, capacity, arity, fill, distribution, ops),
+                                        benchmark.operation);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (new File(commands).isFile()) {
+            FastStdIn.setFile(commands);
+            Command[] stream = Command.readAll();
+            // ops counts commands and is rounded up to whole streams, so every command replayed is counted
+            measure("replay", commands + " commands=" + stream.length, ops -> null, (fixture, ops) -> {
+                for (int done = 0; done < ops; done += stream.length) {
+                    Warehouse warehouse = new Warehouse();
+                    for (Command command : stream) {
+                        command.apply(warehouse);
+                    }
+                    blackhole += warehouse.getSectors()[0].getSize();
+                }
+            }, Math.max(stream.length, 1));
+        }
+
+        StdOut.println("(blackhole " + blackhole + ")");
+    }
+
+    static ArrayList<Benchmark> benchmarks() {
+        ArrayList<Benchmark> list = new ArrayList<>();
+
+        list.add(new Benchmark("addProduct", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                f.warehouse.addProduct(f.fresh[i], NAMES[i % NAMES.length], STOCK, f.day++, i & 7);
+            }
+        }));
+        list.add(new Benchmark("betterAddProduct", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                f.warehouse.betterAddProduct(f.fresh[i], NAMES[i % NAMES.length], STOCK, f.day++, i & 7);
+            }
+        }));
+        list.add(new Benchmark("restockProduct", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                f.warehouse.restockProduct(f.existing[i], 1);
+            }
+        }));
+        list.add(new Benchmark("purchaseProduct", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                f.warehouse.purchaseProduct(f.existing[i], f.day++, 1);
+            }
+        }));
+        // 14 purchases for every restock and add, so most of the time goes into sink
+        list.add(new Benchmark("purchaseHeavy", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                switch (i & 15) {
+                    case 0:
+                        f.warehouse.restockProduct(f.existing[i], 1);
+                        break;
+                    case 8:
+                        f.warehouse.addProduct(f.fresh[i], NAMES[i % NAMES.length], STOCK, f.day++, i & 7);
+                        break;
+                    default:
+                        f.warehouse.purchaseProduct(f.existing[i], f.day++, 1 + (i & 3));
+                }
+            }
+        }));
+        // once an id is deleted, later deletes of it only pay for the lookup
+        list.add(new Benchmark("deleteProduct", true, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                f.warehouse.deleteProduct(f.existing[i]);
+            }
+        }));
+
+        // the worst case of each: the last product becomes the least popular and swims to the root,
+        // or the root becomes the most popular and sinks to the bottom
+        list.add(new Benchmark("Sector.swim", true, (f, ops) -> {
+            Sector[] sectors = f.warehouse.getSectors();
+            for (int i = 0; i < ops; i++) {
+                Sector sector = sectors[f.warehouse.sectorOf(f.existing[i])];
+                int last = sector.getSize();
+                if (last > 0) {
+                    sector.get(last).setLastPurchaseDay(-f.day++);
+                    sector.swim(last);
+                }
+            }
+        }));
+        list.add(new Benchmark("Sector.sink", true, (f, ops) -> {
+            Sector[] sectors = f.warehouse.getSectors();
+            for (int i = 0; i < ops; i++) {
+                Sector sector = sectors[f.warehouse.sectorOf(f.existing[i])];
+                if (sector.getSize() > 0) {
+                    sector.get(1).setLastPurchaseDay(f.day++);
+                    sector.sink(1);
+                }
+            }
+        }));
+
+        list.add(new Benchmark("toString", false, (f, ops) -> {
+            for (int i = 0; i < ops; i++) {
+                blackhole += f.warehouse.toString().length();
+            }
+        }));
+        return list;
+    }
+
+    private interface FixtureFactory {
+        Fixture create(int ops);
+    }
+
+    static void measure(String name, String params, FixtureFactory factory, Operation operation) {
+        measure(name, params, factory, operation, 1);
+    }
+
+    /*
+     * Warm up, size the rounds and print the time per operation
+     * A round of ops operations is timed without the time it takes to build its fixture
+     * ops is always a multiple of step, for operations that can only run in whole batches of step
+     */
+    static void measure(String name, String params, FixtureFactory factory, Operation operation, int step) {
+        int ops = roundUp(16, step);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            long nanos = time(factory, operation, ops);
+            // grow the rounds until one takes about ROUND_MILLIS
+            long wanted = ops * (ROUND_MILLIS * 1_000_000L) / Math.max(nanos, 1);
+            ops = roundUp((int) Math.max(1, Math.min(MAX_OPS, Math.min(wanted, ops * 8L))), step);
+        }
+
+        double total = 0;
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            double perOp = (double) time(factory, operation, ops) / ops;
+            total += perOp;
+            best = Math.min(best, perOp);
+        }
+
+        StdOut.printf("%-18s %-50s %12.1f ns/op (best %.1f, %d ops/round)%n",
+                      name, params, total / MEASURED_ROUNDS, best, ops);
+    }
+
+    // The smallest multiple of step that is at least ops
+    private static int roundUp(int ops, int step) {
+        return (int) Math.min(Integer.MAX_VALUE / step * step, ((long) ops + step - 1) / step * step);
+    }
+
+    private static long time(FixtureFactory factory, Operation operation, int ops) {
+        Fixture fixture = factory.create(ops);
+        long start = System.nanoTime();
+        operation.run(fixture, ops);
+        return System.nanoTime() - start;
+    }
+
+    /*
+     * A warehouse with round(fill * capacity) products in every sector, ids 0 to sectorCount * perSector - 1
+     * Products get increasing days, so their popularities are spread out
+     */
+    static Fixture fixture(int sectorCount, int capacity, int arity, double fill, String distribution, int ops) {
+        int perSector = (int) Math.round(fill * capacity);
+        int products = sectorCount * perSector;
+
+        Fixture fixture = new Fixture();
+        fixture.warehouse = new Warehouse.Builder().sectors(sectorCount).capacity(capacity).heapArity(arity).build();
+        for (int id = 0; id < products; id++) {
+            fixture.warehouse.addProduct(id, NAMES[id % NAMES.length], STOCK, id / sectorCount, id % 7);
+        }
+        fixture.day = products;
+
+        Random random = new Random(42);
+        fixture.existing = pickIds(distribution, 0, Math.max(products, 1), ops, random);
+        // room for twice the capacity of new ids, so adds keep evicting or overflowing
+        fixture.fresh = pickIds(distribution, products, 2 * sectorCount * capacity, ops, random);
+        return fixture;
+    }
+
+    // Pick count ids from first to first + range - 1
+    private static int[] pickIds(String distribution, int first, int range, int count, Random random) {
+        int[] ids = new int[count];
+        switch (distribution) {
+            case "uniform":
+                for (int i = 0; i < count; i++) {
+                    ids[i] = first + random.nextInt(range);
+                }
+                break;
+            case "zipf":
+                // rank 1 is id first, so the hottest ids fall in consecutive sectors
+                ZipfDistribution zipf = new ZipfDistribution(range, 0.99);
+                for (int i = 0; i < count; i++) {
+                    ids[i] = first + (int) zipf.next(random) - 1;
+                }
+                break;
+            case "sequential":
+                for (int i = 0; i < count; i++) {
+                    ids[i] = first + i % range;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown id distribution: " + distribution);
+        }
+        return ids;
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,176 @@
+package warehouse;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Counters and latency histograms for one Warehouse, enabled with Warehouse.Builder.metrics().
+ * A warehouse without metrics skips all of this, including reading the clock.
+ *
+ * Operations are numbered like Command types: Command.ADD, RESTOCK, DELETE, PURCHASE and BETTER_ADD.
+ * Latencies are in nanoseconds and cover the whole public call, so they include waiting for
+ * sector locks and for the write-ahead log.
+ */
+public class WarehouseMetrics {
+    private static final String[] OPERATIONS = { "add", "restock", "delete", "purchase", "betterAdd" };
+
+    private Histogram[] latencies = new Histogram[OPERATIONS.length];
+    private AtomicLongArray missing = new AtomicLongArray(OPERATIONS.length); // ids that were not found
+    private AtomicLongArray evictions;                                       // per sector
+    private AtomicLong rejectedPurchases = new AtomicLong();
+    private AtomicLong rejectedAdmissions = new AtomicLong();
+    private Histogram probeLengths = new Histogram();                        // sectors betterAdd looked at
+
+    private ScheduledExecutorService reporter;
+
+    public WarehouseMetrics(int sectorCount) {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        evictions = new AtomicLongArray(sectorCount);
+    }
+
+    void recordLatency(int operation, long nanos) {
+        latencies[operation].record(nanos);
+    }
+
+    void recordMissing(int operation) {
+        missing.incrementAndGet(operation);
+    }
+
+    void recordEviction(int sector) {
+        evictions.incrementAndGet(sector);
+    }
+
+    void recordRejectedPurchase() {
+        rejectedPurchases.incrementAndGet();
+    }
+
+    void recordRejectedAdmission() {
+        rejectedAdmissions.incrementAndGet();
+    }
+
+    void recordProbe(int sectorsLookedAt) {
+        probeLengths.record(sectorsLookedAt);
+    }
+
+    /**
+     * @param operation One of the Command types
+     * @return The latencies of that operation, its count is the number of calls
+     */
+    public Histogram getLatency(int operation) {
+        return latencies[operation];
+    }
+
+    /**
+     * @param operation One of the Command types
+     * @return How many calls of that operation did not find their id
+     */
+    public long getMissing(int operation) {
+        return missing.get(operation);
+    }
+
+    public long getEvictions(int sector) {
+        return evictions.get(sector);
+    }
+
+    public long getTotalEvictions() {
+        long total = 0;
+        for (int i = 0; i < evictions.length(); i++) {
+            total += evictions.get(i);
+        }
+        return total;
+    }
+
+    // Purchases of existing products that asked for at least the whole stock
+    public long getRejectedPurchases() {
+        return rejectedPurchases.get();
+    }
+
+    // Adds the admission filter turned away, see Warehouse.Builder.admissionFilter()
+    public long getRejectedAdmissions() {
+        return rejectedAdmissions.get();
+    }
+
+    // How many sectors each betterAddProduct looked at before it found room, or all of them
+    public Histogram getProbeLengths() {
+        return probeLengths;
+    }
+
+    /**
+     * Write every metric as text, one line per operation plus a few summary lines
+     * @param out Where to write
+     * @throws IOException If out cannot be written
+     */
+    public void appendTo(Appendable out) throws IOException {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            Histogram latency = latencies[i];
+            out.append(String.format("%-10s count %d mean %.0fns p50 %dns p99 %dns p99.9 %dns max %dns missing %d%n",
+                                     OPERATIONS[i], latency.getCount(), latency.getMean(),
+                                     latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                                     latency.getValueAtPercentile(99.9), latency.getMax(), missing.get(i)));
+        }
+
+        int busiest = 0;
+        for (int i = 1; i < evictions.length(); i++) {
+            if (evictions.get(i) > evictions.get(busiest)) {
+                busiest = i;
+            }
+        }
+        out.append(String.format("evictions %d, most in sector %d (%d)%n",
+                                 getTotalEvictions(), busiest, evictions.get(busiest)));
+        out.append(String.format("rejected purchases %d, rejected admissions %d%n",
+                                 rejectedPurchases.get(), rejectedAdmissions.get()));
+        out.append(String.format("betterAdd probe length mean %.2f p99 %d max %d%n",
+                                 probeLengths.getMean(), probeLengths.getValueAtPercentile(99), probeLengths.getMax()));
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        try {
+            appendTo(text);
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringBuilder does not throw
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write the metrics to out every periodMillis on a background thread, until stopReporting()
+     * @param periodMillis Time between dumps
+     * @param out Where to write, flushed after every dump if it is Flushable
+     */
+    public synchronized void startReporting(long periodMillis, Appendable out) {
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "warehouse-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                synchronized (out) {
+                    appendTo(out);
+                    out.append(System.lineSeparator());
+                    if (out instanceof Flushable) {
+                        ((Flushable) out).flush();
+                    }
+                }
+            } catch (IOException e) {
+                // keep reporting, the next dump may get through
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package warehouse;
+
+import java.nio.CharBuffer;
+import java.util.Random;
+
+/*
+ * Use this class to write large command files in the same format as everything.in.
+ *
+ *   java warehouse.WorkloadGenerator <count> <output> [option=value ...]
+ *
+ *   seed=1                      the same seed and options always give the same file
+ *   ids=1000000                 ids are drawn from 0 to ids - 1
+ *   zipf=0.99                   skew of id popularity, 0 makes every id equally likely
+ *   mix=add:30,restock:20,purchase:40,delete:10,betteradd:0
+ *                               relative weight of each command type
+ *   sectors=10 skew=0           with skew above 0 the sectors themselves are Zipf distributed with that
+ *                               exponent (sector 0 the busiest), and ids are Zipf distributed within a sector
+ *   daystep=0.1                 chance that the day moves forward by one before a command, days never go back
+ *   names=uniform:4:12          name lengths, uniform:min:max or geometric:mean
+ *
+ * The count is written as a long, so files of billions of commands can be made.
+ * Everything reads counts that large, and ConvertCommands turns the file into a binary log for ReplayBinary.
+ */
+public class WorkloadGenerator {
+    private static final int[] TYPES = { Command.ADD, Command.RESTOCK, Command.PURCHASE, Command.DELETE, Command.BETTER_ADD };
+    private static final String[] TYPE_NAMES = { "add", "restock", "purchase", "delete", "betteradd" };
+
+    private Random random;
+    private int idCount = 1_000_000;
+    private double idSkew = 0.99;
+    private int[] weights = { 30, 20, 40, 10, 0 }; // in the order of TYPES
+    private int sectorCount = 10;
+    private double sectorSkew = 0;
+    private double dayStep = 0.1;
+    private boolean geometricNames = false;
+    private int minNameLength = 4;
+    private int maxNameLength = 12;
+    private double meanNameLength = 8;
+
+    private ZipfDistribution ids;      // over every id, or over the ids of one sector when sectors are skewed
+    private ZipfDistribution sectors;  // null unless sectors are skewed
+    private int totalWeight;
+    private int day;
+    private char[] name = new char[16];
+
+    public WorkloadGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        long count = Long.parseLong(args[0]);
+        FastStdOut.setFile(args[1]);
+
+        long seed = 1;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("seed=")) {
+                seed = Long.parseLong(args[i].substring(5));
+            }
+        }
+
+        WorkloadGenerator generator = new WorkloadGenerator(seed);
+        for (int i = 2; i < args.length; i++) {
+            generator.configure(args[i]);
+        }
+
+        generator.generate(count);
+        FastStdOut.close();
+    }
+
+    /**
+     * Set one option
+     * @param option An option=value pair as described above
+     * @throws IllegalArgumentException If the option is unknown or its value is invalid
+     */
+    public void configure(String option) {
+        int equals = option.indexOf('=');
+        if (equals == -1) {
+            throw new IllegalArgumentException("expected option=value: " + option);
+        }
+        String key = option.substring(0, equals);
+        String value = option.substring(equals + 1);
+
+        switch (key) {
+            case "seed":
+                break; // only used when the generator is created
+            case "ids":
+                idCount = Integer.parseInt(value);
+                break;
+            case "zipf":
+                idSkew = Double.parseDouble(value);
+                break;
+            case "mix":
+                weights = new int[TYPES.length];
+                for (String part : value.split(",")) {
+                    String[] typeAndWeight = part.split(":");
+                    weights[typeIndex(typeAndWeight[0])] = Integer.parseInt(typeAndWeight[1]);
+                }
+                break;
+            case "sectors":
+                sectorCount = Integer.parseInt(value);
+                break;
+            case "skew":
+                sectorSkew = Double.parseDouble(value);
+                break;
+            case "daystep":
+                dayStep = Double.parseDouble(value);
+                break;
+            case "names":
+                String[] parts = value.split(":");
+                if (parts[0].equals("uniform") && parts.length == 3) {
+                    geometricNames = false;
+                    minNameLength = Integer.parseInt(parts[1]);
+                    maxNameLength = Integer.parseInt(parts[2]);
+                } else if (parts[0].equals("geometric") && parts.length == 2) {
+                    geometricNames = true;
+                    meanNameLength = Double.parseDouble(parts[1]);
+                } else {
+                    throw new IllegalArgumentException("names must be uniform:min:max or geometric:mean: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option: " + key);
+        }
+    }
+
+    /**
+     * Write a command count followed by that many commands to FastStdOut
+     * @param count The number of commands
+     */
+    public void generate(long count) {
+        validate();
+
+        if (sectorSkew > 0) {
+            sectors = new ZipfDistribution(sectorCount, sectorSkew);
+            ids = new ZipfDistribution((idCount + sectorCount - 1) / sectorCount, idSkew);
+        } else {
+            sectors = null;
+            ids = new ZipfDistribution(idCount, idSkew);
+        }
+        totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+
+        FastStdOut.println(count);
+        for (long i = 0; i < count; i++) {
+            writeCommand();
+        }
+    }
+
+    private void validate() {
+        if (idCount < 1 || sectorCount < 1) {
+            throw new IllegalArgumentException("ids and sectors must be positive");
+        }
+        if (sectorSkew > 0 && idCount < sectorCount) {
+            throw new IllegalArgumentException("need at least one id per sector to skew sectors");
+        }
+        int total = 0;
+        for (int weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("mix weights must not be negative");
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("mix needs at least one command type");
+        }
+        if (dayStep < 0 || dayStep > 1) {
+            throw new IllegalArgumentException("daystep must be between 0 and 1: " + dayStep);
+        }
+        if (geometricNames ? meanNameLength < 1 : minNameLength < 1 || maxNameLength < minNameLength) {
+            throw new IllegalArgumentException("name lengths must be at least 1");
+        }
+    }
+
+    private void writeCommand() {
+        if (random.nextDouble() < dayStep && day < Integer.MAX_VALUE) {
+            day++;
+        }
+
+        int type = TYPES[pickType()];
+        int id = nextId();
+
+        switch (type) {
+            case Command.ADD:
+            case Command.BETTER_ADD:
+                FastStdOut.print(type == Command.ADD ? "add " : "betteradd ");
+                FastStdOut.print(day);
+                FastStdOut.print(' ');
+                FastStdOut.print(id);
+                FastStdOut.print(' ');
+                writeName();
+                FastStdOut.print(' ');
+                FastStdOut.print(random.nextInt(100)); // stock
+                FastStdOut.print(' ');
+                FastStdOut.print(random.nextInt(100)); // demand
+                break;
+            case Command.RESTOCK:
+                FastStdOut.print("restock ");
+                FastStdOut.print(id);
+                FastStdOut.print(' ');
+                FastStdOut.print(1 + random.nextInt(50));
+                break;
+            case Command.PURCHASE:
+                FastStdOut.print("purchase ");
+                FastStdOut.print(day);
+                FastStdOut.print(' ');
+                FastStdOut.print(id);
+                FastStdOut.print(' ');
+                FastStdOut.print(1 + random.nextInt(20));
+                break;
+            default:
+                FastStdOut.print("delete ");
+                FastStdOut.print(id);
+        }
+        FastStdOut.println();
+    }
+
+    // Index into TYPES, chosen by weight
+    private int pickType() {
+        int r = random.nextInt(totalWeight);
+        int i = 0;
+        while (r >= weights[i]) {
+            r -= weights[i];
+            i++;
+        }
+        return i;
+    }
+
+    /*
+     * Without sector skew the most popular ids are 0, 1, 2, ..., so the hottest ids are spread over every sector
+     * With sector skew a sector is picked first, then the k-th most popular id of sector s is s + (k - 1) * sectorCount
+     */
+    private int nextId() {
+        if (sectors == null) {
+            return (int) ids.next(random) - 1;
+        }
+
+        int sector = (int) sectors.next(random) - 1;
+        while (true) {
+            long id = sector + (ids.next(random) - 1) * sectorCount;
+            if (id < idCount) {
+                return (int) id; // the last row of ids may be short
+            }
+        }
+    }
+
+    private void writeName() {
+        int length;
+        if (geometricNames) {
+            // number of trials until the first success, with mean meanNameLength
+            double p = 1 / meanNameLength;
+            length = p >= 1 ? 1 : 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+        } else {
+            length = minNameLength + random.nextInt(maxNameLength - minNameLength + 1);
+        }
+
+        if (length > name.length) {
+            name = new char[Math.max(length, name.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            name[i] = (char) ('a' + random.nextInt(26));
+        }
+        FastStdOut.print(CharBuffer.wrap(name, 0, length));
+    }
+
+    private static int typeIndex(String type) {
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown command type: " + type);
+    }
+}
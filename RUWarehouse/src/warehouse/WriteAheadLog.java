@@ -0,0 +1,333 @@
+package warehouse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A write-ahead log for Warehouse mutations, kept in its own directory as
+ *   wal-<generation>.log   binary command logs (see CommandLogWriter)
+ *   snapshot-<generation>  a Warehouse snapshot of the state when wal-<generation>.log was started
+ *
+ * Mutations are appended to an in-memory buffer and a background thread commits them in groups:
+ * as soon as a mutation is waiting it writes and fsyncs everything appended so far, and whatever is
+ * appended during that fsync forms the next group. It only holds a group back while other threads are
+ * queued to append, and never for longer than the configured latency, so a lone writer never waits
+ * for it. await() returns once a mutation is on disk.
+ *
+ * checkpoint() starts a new generation, snapshots the warehouse for it and only then deletes the
+ * older files, so a crash at any point leaves a snapshot plus every log written after it.
+ * Recovery loads the newest snapshot and replays every log of that generation or later, in order.
+ */
+public class WriteAheadLog {
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private Path directory;
+    private long maxLatencyNanos;
+
+    // guarded by commitLock, then this
+    private int generation;
+    private FileChannel channel;
+    private CommandLogWriter writer;
+
+    // guarded by this
+    private long appended;      // tickets handed out so far
+    private long durable;       // every ticket up to this one is on disk
+    private boolean closed;
+    private IOException failure;
+
+    private final AtomicInteger arriving = new AtomicInteger(); // threads in append() waiting for this
+    private final Object commitLock = new Object();
+    private Thread committer;
+
+    private WriteAheadLog(Path directory, long maxLatencyMillis, int generation) throws IOException {
+        this.directory = directory;
+        this.maxLatencyNanos = maxLatencyMillis * 1_000_000L;
+        startGeneration(generation);
+
+        committer = new Thread(this::commitLoop, "warehouse-wal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Start logging into a directory, after recover() has brought the warehouse up to date with it
+     * @param directory The log directory, created if needed
+     * @param maxLatencyMillis The longest a mutation waits for queued appends to share its fsync
+     * @return The open log
+     * @throws IOException If the directory cannot be used
+     */
+    public static WriteAheadLog open(Path directory, long maxLatencyMillis) throws IOException {
+        Files.createDirectories(directory);
+        int newest = Math.max(newestGeneration(directory, LOG_PREFIX), newestGeneration(directory, SNAPSHOT_PREFIX));
+        return new WriteAheadLog(directory, maxLatencyMillis, newest + 1);
+    }
+
+    /**
+     * Bring an empty warehouse to the state stored in a log directory
+     * @param directory The log directory, nothing happens if it does not exist
+     * @param warehouse An empty warehouse with the same sector count and capacity as the logged one
+     * @throws IOException If the files cannot be read or do not match the warehouse
+     */
+    public static void recover(Path directory, Warehouse warehouse) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        int snapshot = newestGeneration(directory, SNAPSHOT_PREFIX);
+        if (snapshot != -1) {
+            try (MappedInput in = new MappedInput(directory.resolve(SNAPSHOT_PREFIX + snapshot))) {
+                int[] layout = Warehouse.readSnapshotHeader(in);
+                if (layout[0] != warehouse.getSectors().length || layout[1] != warehouse.getSectors()[0].getCapacity()) {
+                    throw new IOException("snapshot has " + layout[0] + " sectors of " + layout[1]
+                                        + ", the warehouse does not");
+                }
+                warehouse.load(in, layout[2]);
+            }
+        }
+
+        for (int logGeneration : generations(directory, LOG_PREFIX)) {
+            if (logGeneration < snapshot) {
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(directory.resolve(LOG_PREFIX + logGeneration + LOG_SUFFIX))) {
+                new CommandLogReader(in).replay(warehouse);
+            }
+        }
+    }
+
+    /**
+     * Append a mutation to the log, it is not durable until await() returns for its ticket
+     * @param command The mutation
+     * @return The ticket of the mutation
+     */
+    public long append(Command command) {
+        arriving.incrementAndGet(); // so the committer waits for this one to join its group
+        synchronized (this) {
+            arriving.decrementAndGet();
+            checkUsable();
+            try {
+                writer.write(command);
+            } catch (IOException e) {
+                fail(e);
+                checkUsable();
+            }
+
+            appended++;
+            notifyAll(); // wake the committer
+            return appended;
+        }
+    }
+
+    /**
+     * Wait until a mutation is on disk
+     * @param ticket The ticket append() returned
+     * @throws UncheckedIOException If the log could not be written
+     */
+    public synchronized void await(long ticket) {
+        boolean interrupted = false;
+        while (durable < ticket && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durable < ticket) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * Start a new generation and store a snapshot for it, then delete everything older
+     * The warehouse must not change while this runs
+     * @param warehouse The warehouse this log belongs to
+     * @throws IOException If the snapshot cannot be written, the old files are kept in that case
+     */
+    public void checkpoint(Warehouse warehouse) throws IOException {
+        int started;
+        synchronized (commitLock) {
+            synchronized (this) {
+                checkUsable();
+                commit();
+                channel.close();
+                startGeneration(generation + 1);
+                started = generation;
+            }
+        }
+
+        Path temp = directory.resolve(SNAPSHOT_PREFIX + started + ".tmp");
+        warehouse.writeSnapshot(temp);
+        Files.move(temp, directory.resolve(SNAPSHOT_PREFIX + started), StandardCopyOption.ATOMIC_MOVE);
+
+        for (int old : generations(directory, LOG_PREFIX)) {
+            if (old < started) {
+                Files.deleteIfExists(directory.resolve(LOG_PREFIX + old + LOG_SUFFIX));
+            }
+        }
+        for (int old : generations(directory, SNAPSHOT_PREFIX)) {
+            if (old < started) {
+                Files.deleteIfExists(directory.resolve(SNAPSHOT_PREFIX + old));
+            }
+        }
+    }
+
+    /**
+     * Commit everything appended so far and stop the committer
+     * @throws IOException If the last commit fails
+     */
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+                if (failure == null) {
+                    commit();
+                }
+                channel.close();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void startGeneration(int next) throws IOException {
+        generation = next;
+        channel = FileChannel.open(directory.resolve(LOG_PREFIX + next + LOG_SUFFIX),
+                                   StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writer = new CommandLogWriter(Channels.newOutputStream(channel));
+        writer.flush();
+        channel.force(true);
+    }
+
+    // Write and fsync everything appended so far, the caller holds commitLock and this
+    private void commit() throws IOException {
+        writer.flush();
+        channel.force(false);
+        durable = appended;
+        notifyAll();
+    }
+
+    private void commitLoop() {
+        while (true) {
+            // wait for work without holding commitLock, so checkpoint() and close() can get in
+            synchronized (this) {
+                try {
+                    while (appended == durable && !closed && failure == null) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed || failure != null) {
+                    return;
+                }
+            }
+
+            long target;
+            synchronized (commitLock) {
+                synchronized (this) {
+                    try {
+                        // let threads that are already queued to append share this fsync, nobody else is waited for
+                        long deadline = System.nanoTime() + maxLatencyNanos;
+                        for (long left = maxLatencyNanos; left > 0 && arriving.get() > 0 && !closed;
+                             left = deadline - System.nanoTime()) {
+                            wait(left / 1_000_000L, (int) (left % 1_000_000L));
+                        }
+                        if (closed || failure != null) {
+                            return;
+                        }
+
+                        writer.flush();
+                        target = appended;
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        fail(e);
+                        return;
+                    }
+                }
+
+                // appends only need this, so they keep going while the disk catches up
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                durable = Math.max(durable, target);
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("write-ahead log is closed");
+        }
+    }
+
+    // The generations of every file with some prefix, oldest first
+    private static ArrayList<Integer> generations(Path directory, String prefix) throws IOException {
+        ArrayList<Integer> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(prefix)) {
+                    continue;
+                }
+                String number = name.substring(prefix.length());
+                if (prefix.equals(LOG_PREFIX)) {
+                    if (!number.endsWith(LOG_SUFFIX)) {
+                        continue;
+                    }
+                    number = number.substring(0, number.length() - LOG_SUFFIX.length());
+                }
+                try {
+                    found.add(Integer.parseInt(number));
+                } catch (NumberFormatException e) {
+                    // a temporary file or something unrelated
+                }
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private static int newestGeneration(Path directory, String prefix) throws IOException {
+        ArrayList<Integer> found = generations(directory, prefix);
+        return found.isEmpty() ? -1 : found.get(found.size() - 1);
+    }
+}
@@ -0,0 +1,95 @@
+package warehouse;
+
+import java.util.Random;
+
+/*
+ * Samples ranks 1..n where rank k comes up with probability proportional to 1 / k^exponent.
+ * Uses rejection-inversion (Hormann and Derflinger, 1996), so sampling takes constant time and memory
+ * no matter how large n is, and a seeded Random always produces the same ranks.
+ */
+public class ZipfDistribution {
+    private long n;
+    private double exponent;
+    private double hIntegralX1;
+    private double hIntegralN;
+    private double s;
+
+    /**
+     * @param n The number of ranks
+     * @param exponent How skewed the ranks are, 0 is uniform and around 1 is typical for popularity
+     */
+    public ZipfDistribution(long n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("number of ranks must be positive: " + n);
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("exponent must not be negative: " + exponent);
+        }
+        this.n = n;
+        this.exponent = exponent;
+        hIntegralX1 = hIntegral(1.5) - 1;
+        hIntegralN = hIntegral(n + 0.5);
+        s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    /**
+     * Draw one rank
+     * @param random The source of randomness
+     * @return A rank from 1 to n, 1 being the most likely
+     */
+    public long next(Random random) {
+        while (true) {
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    public long getRanks() {
+        return n;
+    }
+
+    // h(x) = 1 / x^exponent
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    // The integral of h, shifted so it is well defined for exponent 1 too
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) {
+            t = -1; // only reached through rounding errors
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    // log(1 + x) / x, accurate near 0
+    private static double helper1(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    // (exp(x) - 1) / x, accurate near 0
+    private static double helper2(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+    }
+}